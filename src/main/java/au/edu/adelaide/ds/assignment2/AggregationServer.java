@@ -2,6 +2,8 @@ package au.edu.adelaide.ds.assignment2;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.*;
 import java.util.*;
 import java.util.logging.*;
@@ -19,321 +21,718 @@ import com.google.gson.reflect.TypeToken;
  * - HTTP-like status codes:
  *   201 (Created), 200 (OK), 204 (No Content),
  *   400 (Bad Request), 500 (Internal Server Error)
- * - Removes expired records (30s) using a background cleanup thread
+ * - Removes expired records (30s) using a background cleanup thread; expiry is
+ *   tracked per replica lease, renewed by PUTs or by body-less heartbeats
+ * - Serves per-state and global rollups from /aggregates
+ * - Moves expired records into an on-disk archive, queryable via /archive
+ * - Acknowledges retried or out-of-order stale PUTs without storing them (see ReplicaDedup)
+ * - Emits JFR events for request stages, lock waits, persistence and cleanup (see FlightEvents)
+ * .
+ * Embedding: configure data directory, port (0 = ephemeral), expiry and cleanup
+ * intervals and the time source through ServerConfig, then start(), awaitReady()
+ * and close(). runCleanup() runs a cleanup pass on demand.
  */
-public class AggregationServer {
+public class AggregationServer implements Closeable {
 
     private static final Logger logger = Logger.getLogger(AggregationServer.class.getName());
     private static final String DATA_FILE = "weather_data.json";
-    private static final long EXPIRY_DURATION_MS = 30_000; // 30 seconds
-    private static final long CLEANUP_INTERVAL_MS = 5000;  // 5 seconds
-
-    private final int port;
-    private final List<WeatherRecord> weatherData = Collections.synchronizedList(new ArrayList<>());
+    private static final String ARCHIVE_DIR = "archive";
+
+    private final ServerConfig config;
+    private final TimeSource timeSource;
+    private final File dataFile;
+    private final Map<String, WeatherRecord> weatherData =                // station → latest record
+            Collections.synchronizedMap(new LinkedHashMap<>());
+    private final StationRollups rollups = new StationRollups();     // guarded by weatherData
+    private final ReplicaLeases leases = new ReplicaLeases();        // guarded by weatherData
+    private final ReplicaDedup dedup = new ReplicaDedup();
     private final LamportClock clock = new LamportClock();
     private final Gson gson = new Gson();
+    private final RecordArchive archive;
+    private final BufferPool bufferPool = new BufferPool();
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final Set<Socket> clientSockets = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket serverSocket;
+    private volatile IOException startupFailure;
+    private volatile Thread acceptThread;
+    private volatile Thread cleanupThread;
+    private volatile boolean closed;
 
     /**
-     * Constructs an AggregationServer listening on the given port.
+     * Constructs an AggregationServer listening on the given port, with default settings.
      *
      * @param port TCP port for server to listen on
      */
     public AggregationServer(int port) {
-        this.port = port;
+        this(new ServerConfig().setPort(port));
+    }
+
+    /**
+     * Constructs an AggregationServer from a configuration.
+     *
+     * @param config data directory, port, expiry/cleanup intervals and time source
+     */
+    public AggregationServer(ServerConfig config) {
+        this.config = config;
+        this.timeSource = config.getTimeSource();
+        this.dataFile = new File(config.getDataDir(), DATA_FILE);
+        this.archive = new RecordArchive(new File(config.getDataDir(), ARCHIVE_DIR), timeSource);
     }
 
     /**
-     * Starts the server:
+     * Starts the server on a background thread and returns immediately:
      * - Restores data from disk if available
      * - Accepts GET and PUT requests via raw socket
-     * - Runs cleanup in background
+     * - Runs cleanup in background (unless the cleanup interval is 0)
+     * .
+     * Use awaitReady() to wait until connections are accepted.
+     */
+    public synchronized void start() {
+        if (acceptThread != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        Thread thread = new Thread(this::serve, "aggregation-server");
+        acceptThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return false if the timeout elapsed first
+     * @throws IOException          if the server failed to start (e.g. the port is in use or
+     *                              the data file is corrupt), or was closed before it started
+     * @throws InterruptedException if interrupted while waiting
      */
-    public void start() {
-        loadFromFile();
+    public boolean awaitReady(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        if (!ready.await(timeout, unit)) return false;
+        if (startupFailure != null) {
+            throw new IOException("Aggregation Server failed to start", startupFailure);
+        }
+        if (serverSocket == null) {
+            throw new IOException("Aggregation Server was closed before it started");
+        }
+        return true;
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            logger.info("Aggregation Server started on port " + port);
-            startCleanupThread();
+    /**
+     * Returns the bound port once ready (useful with port 0), the configured port before.
+     */
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : config.getPort();
+    }
 
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                logger.info("Accepted connection from " + clientSocket.getRemoteSocketAddress());
-                new Thread(new ClientHandler(clientSocket)).start();
+    /**
+     * Stops accepting connections, closes open client connections and stops the
+     * background threads. Stored data stays on disk.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        Thread cleanup = cleanupThread;
+        if (cleanup != null) cleanup.interrupt();
+        archive.close();
+        for (Socket socket : clientSockets) {
+            closeQuietly(socket);
+        }
+
+        Thread accept = acceptThread;
+        if (accept != null && accept != Thread.currentThread()) {
+            try {
+                accept.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Server error", e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Accept loop, run by the thread created in start(). */
+    private void serve() {
+        try {
+            loadFromFile();
+
+            try (ServerSocket socket = new ServerSocket(config.getPort())) {
+                serverSocket = socket;
+                if (closed) return;
+                logger.info("Aggregation Server started on port " + socket.getLocalPort());
+                if (config.getCleanupIntervalMs() > 0) {
+                    startCleanupThread();
+                }
+                archive.startMaintenanceThread();
+                ready.countDown();
+
+                while (!closed) {
+                    Socket clientSocket = socket.accept();
+                    logger.info("Accepted connection from " + clientSocket.getRemoteSocketAddress());
+                    new Thread(new ClientHandler(clientSocket)).start();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (closed) {
+                logger.info("Aggregation Server on port " + getPort() + " stopped");
+            } else {
+                if (ready.getCount() > 0) {
+                    startupFailure = e instanceof IOException ? (IOException) e : new IOException(e.toString(), e);
+                }
+                logger.log(Level.SEVERE, "Server error", e);
+            }
+        } finally {
+            ready.countDown();   // also releases awaitReady() when startup failed
         }
     }
 
     /**
-     * Starts a background thread that periodically removes expired records
-     * (older than EXPIRY_DURATION_MS) and persists updates to disk.
+     * Starts a background thread that runs a cleanup pass every cleanup interval.
      */
     private void startCleanupThread() {
-        Thread cleanupThread = new Thread(() -> {
-            while (true) {
+        Thread thread = new Thread(() -> {
+            while (!closed) {
                 try {
-                    Thread.sleep(CLEANUP_INTERVAL_MS);
-                    long now = System.currentTimeMillis();
+                    Thread.sleep(config.getCleanupIntervalMs());
+                    runCleanup();
+                } catch (InterruptedException e) {
+                    if (!closed) logger.warning("Cleanup thread interrupted.");
+                    break;
+                }
+            }
+        }, "aggregation-cleanup");
+        thread.setDaemon(true);
+        cleanupThread = thread;
+        thread.start();
+    }
 
-                    synchronized (weatherData) {
-                        int before = weatherData.size();
+    /**
+     * Runs one cleanup pass now: moves records of replicas whose lease was not
+     * renewed within the expiry duration to the archive and persists the store.
+     * The archive write is forced to disk before the store file drops the records,
+     * so a crash in between leaves a duplicate (removed by compaction), never a loss.
+     * Called by the cleanup thread; with a manual time source, call it directly.
+     *
+     * @return number of archived records
+     */
+    public int runCleanup() {
+        FlightEvents.CleanupPass pass = new FlightEvents.CleanupPass();
+        pass.begin();
+        long now = timeSource.currentTimeMillis();
+        List<WeatherRecord> expired = new ArrayList<>();
+
+        FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+        lockWait.begin();
+        synchronized (weatherData) {
+            lockWait.end();
+            for (String station : leases.expire(now, config.getExpiryMs())) {
+                WeatherRecord record = weatherData.remove(station);
+                if (record != null) {
+                    rollups.retract(record);
+                    expired.add(record);
+                }
+            }
+        }
+        FlightEvents.commitLockWait(lockWait, "cleanup", null);
+
+        if (expired.isEmpty()) {
+            logger.fine("Cleanup: no expired records at " + now);
+        } else if (archive.append(expired, now)) {   // outside the store lock: no GET/PUT waits on segment I/O
+            logger.info("Cleanup: archived " + expired.size() + " expired record(s)");
+            saveToFile();   // outside the store lock: saveToFile locks this, then weatherData
+        } else {
+            restoreExpired(expired);
+            expired.clear();
+        }
 
-                        boolean removed = weatherData.removeIf(record ->
-                                now - record.getReceivedTime() > EXPIRY_DURATION_MS
-                        );
+        if (pass.shouldCommit()) {
+            pass.expired = expired.size();
+            pass.remaining = weatherData.size();
+            pass.commit();
+        }
+        return expired.size();
+    }
 
-                        int after = weatherData.size();
-                        if (removed) {
-                            logger.info("Cleanup: removed " + (before - after) + " expired record(s)");
-                            saveToFile();
-                        } else {
-                            logger.fine("Cleanup: no expired records at " + now);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    logger.warning("Cleanup thread interrupted.");
-                    break;
+    /**
+     * Puts records back whose archive write failed, unless a newer PUT replaced them
+     * meanwhile. Their leases keep the old renewal time, so the next pass retries.
+     */
+    private void restoreExpired(List<WeatherRecord> expired) {
+        synchronized (weatherData) {
+            for (WeatherRecord record : expired) {
+                if (weatherData.putIfAbsent(record.getStation(), record) == null) {
+                    rollups.add(record);
+                    leases.renew(record.getReplicaId(), record.getStation(), record.getReceivedTime());
                 }
             }
-        });
-        cleanupThread.setDaemon(true);
-        cleanupThread.start();
+        }
+        logger.warning("Cleanup: kept " + expired.size() + " expired record(s), archive write failed");
     }
 
-    /** Handles a single client connection (GET/PUT only). */
+    /**
+     * Handles a single client connection (GET/PUT only).
+     * Requests are parsed from a pooled buffer; the connection is kept open for
+     * further requests when the client sends "Connection: keep-alive", and closed
+     * when no complete request arrives within the idle timeout.
+     */
     private class ClientHandler implements Runnable {
         private final Socket socket;
         ClientHandler(Socket socket) { this.socket = socket; }
 
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-
-                String requestLine = in.readLine();
-                if (requestLine == null) return;
+            ByteBuffer buffer = bufferPool.acquire();
+            HttpRequest request = new HttpRequest();
+            clientSockets.add(socket);   // closed by close()
+            try (Socket s = socket;
+                 InputStream in = s.getInputStream();
+                 OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+                s.setSoTimeout(config.getIdleTimeoutMs());   // an idle keep-alive client must not pin this thread
+
+                while (!closed) {
+                    try {
+                        if (!HttpRequestParser.read(in, buffer, request)) return;
+                    } catch (SocketTimeoutException e) {
+                        logger.fine("Closing connection from " + s.getRemoteSocketAddress() + ": no request within "
+                                + config.getIdleTimeoutMs() + " ms");
+                        return;
+                    } catch (HttpParseException e) {
+                        logger.warning("Malformed request from " + s.getRemoteSocketAddress() + ": " + e.getMessage());
+                        sendResponse(out, e.getStatus(), "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
 
-                if (requestLine.startsWith("PUT")) {
-                    handlePutRequest(in, out);
-                } else if (requestLine.startsWith("GET")) {
-                    handleGetRequest(out);
-                } else {
-                    out.println("HTTP/1.1 400 Bad Request");
-                    out.println();
-                    out.println("Only GET and PUT supported.");
+                    dispatch(request, out);
+                    if (!request.isKeepAlive()) return;
                 }
 
             } catch (IOException e) {
-                logger.log(Level.SEVERE, "Client handler error", e);
+                if (!closed) logger.log(Level.SEVERE, "Client handler error", e);
+            } finally {
+                clientSockets.remove(socket);
+                bufferPool.release(buffer);
             }
         }
     }
 
+    /** Routes a parsed request to its handler. */
+    private void dispatch(HttpRequest request, OutputStream out) throws IOException {
+        if (request.getMethod() == HttpRequest.Method.PUT && request.getRoute() == HttpRequest.Route.HEARTBEAT) {
+            handleHeartbeatRequest(request, out);
+        } else if (request.getMethod() == HttpRequest.Method.PUT) {
+            handlePutRequest(request, out);
+        } else if (request.getMethod() == HttpRequest.Method.GET) {
+            switch (request.getRoute()) {
+                case AGGREGATES:
+                    handleAggregatesRequest(out);
+                    break;
+                case ARCHIVE:
+                    handleArchiveRequest(request, out);
+                    break;
+                default:
+                    handleGetRequest(request, out);
+            }
+        } else {
+            sendResponse(out, "400 Bad Request", "text/plain",
+                    "Only GET and PUT supported.".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Writes a complete response (status line, headers, body) and flushes it. */
+    private static void sendResponse(OutputStream out, String status, String contentType, byte[] body)
+            throws IOException {
+        FlightEvents.RequestStage event = new FlightEvents.RequestStage();
+        event.begin();
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.US_ASCII);
+        out.write(headBytes);
+        out.write(body);
+        out.flush();
+        FlightEvents.commitStage(event, FlightEvents.STAGE_WRITE, null, headBytes.length + body.length);
+    }
+
+    /** Outcome of storing one record. */
+    private enum StoreResult { CREATED, UPDATED, UNCHANGED }
+
     /**
      * Handles HTTP-like PUT requests from ContentServers.
+     * The body is JSON, or the binary format when Content-Type selects it.
+     * A PUT whose (Replica-Id, Lamport-Clock) was already handled, or that is older
+     * than what the replica already stored for the station, is acknowledged with 200
+     * without touching the clock (for known duplicates), the store or the disk.
      * <p>
      * Status codes:
      * - 201 → First time a record from this station
-     * - 200 → Update to existing station
+     * - 200 → Update to existing station, or duplicate / stale update
      * - 204 → Empty payload
      * - 400 → Missing headers / bad request
      * - 500 → Malformed JSON / unexpected error
      */
-    private void handlePutRequest(BufferedReader in, PrintWriter out) throws IOException {
+    private void handlePutRequest(HttpRequest request, OutputStream out) throws IOException {
         try {
             //TEMPORARY injection for testing 500
             //if (true) throw new RuntimeException("Simulated failure");
-            // 1. Read headers
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                if (line.contains(":")) {
-                    String[] parts = line.split(":", 2);
-                    headers.put(parts[0].trim(), parts[1].trim());
-                }
+            // 1. Extract Lamport timestamp
+            if (!request.hasLamportClock()) {
+                logger.warning("Invalid or missing Lamport-Clock header");
+                sendResponse(out, "400 Bad Request", "text/plain", new byte[0]);
+                return;
             }
 
-            // 2. Extract Lamport timestamp
-            int receivedTimestamp;
-            try {
-                receivedTimestamp = Integer.parseInt(headers.get("Lamport-Clock"));
-            } catch (NumberFormatException | NullPointerException e) {
-                logger.warning("Invalid or missing Lamport-Clock header: " + headers.get("Lamport-Clock"));
-                out.println("HTTP/1.1 400 Bad Request");
-                out.println("Content-Type: text/plain");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
+            // 2. Acknowledge retries of handled updates before they touch the clock or the body
+            if (request.getReplicaId() != null && dedup.isDuplicate(request.getReplicaId(), request.getLamportClock())) {
+                logger.info("Duplicate PUT from replica " + request.getReplicaId() + " @ "
+                        + request.getLamportClock() + " (acknowledged, not applied)");
+                sendResponse(out, "200 OK", "text/plain", new byte[0]);
                 return;
             }
-            clock.update(receivedTimestamp);
+            clock.update(request.getLamportClock());
 
-            // 3. Read Content-Length
-            int contentLength = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
+            // 3. Check Content-Length (the body was already read by the parser)
+            int contentLength = request.getContentLength();
             if (contentLength == 0) {
-                out.println("HTTP/1.1 204 No Content");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
+                sendResponse(out, "204 No Content", null, new byte[0]);
                 return;
             }
 
-            // 4. Read JSON payload
-            char[] buffer = new char[contentLength];
-            int read = in.read(buffer, 0, contentLength);
-            if (read != contentLength) {
-                throw new IOException("Incomplete payload read");
+            // 4. Decode JSON or binary body
+            FlightEvents.RequestStage decode = new FlightEvents.RequestStage();
+            decode.begin();
+            Map<String, Object> json;
+            if (request.isBinaryBody()) {
+                json = new HashMap<>(BinaryCodec.decodeFields(request.getBody(), request.getBodyOffset(), contentLength));
+            } else {
+                json = gson.fromJson(new String(request.getBody(), request.getBodyOffset(), contentLength,
+                        StandardCharsets.UTF_8), Map.class);
             }
-            String payload = new String(buffer);
-
-            // 5. Parse JSON
-            Map<String, Object> json = gson.fromJson(payload, Map.class);
+            commitPutStage(decode, FlightEvents.STAGE_DECODE, json, request);
             if (json == null || !json.containsKey("id")) {
                 logger.warning("Invalid record: missing required fields -> " + json);
-                out.println("HTTP/1.1 400 Bad Request");
-                out.println("Content-Type: text/plain");
-                out.println("Content-Length: 0");
-                out.println();
-                out.flush();
+                sendResponse(out, "400 Bad Request", "text/plain", new byte[0]);
                 return;
             }
 
-            // 6. Process and save record
-            boolean isNew = processRecord(json);
-            saveToFile();
-
-            // 7. Send success response
-            if (isNew) {
-                out.println("HTTP/1.1 201 Created");
-            } else {
-                out.println("HTTP/1.1 200 OK");
+            // 5. Process and save record
+            FlightEvents.RequestStage store = new FlightEvents.RequestStage();
+            store.begin();
+            StoreResult result = processRecord(json, request);
+            commitPutStage(store, FlightEvents.STAGE_STORE, json, request);
+            if (result != StoreResult.UNCHANGED) {
+                saveToFile();
             }
-            out.println("Content-Type: text/plain");
-            out.println("Content-Length: 0");
-            out.println();
-            out.flush();
+
+            // 6. Send success response
+            sendResponse(out, result == StoreResult.CREATED ? "201 Created" : "200 OK", "text/plain", new byte[0]);
 
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error handling PUT request", e);
-            out.println("HTTP/1.1 500 Internal Server Error");
-            out.println("Content-Type: text/plain");
-            out.println("Content-Length: 0");
-            out.println();
-            out.flush();
+            sendResponse(out, "500 Internal Server Error", "text/plain", new byte[0]);
+        }
+    }
+
+    /** Commits a PUT stage with the station, replica and Lamport value of the request. */
+    private static void commitPutStage(FlightEvents.RequestStage event, String stage,
+                                       Map<String, Object> json, HttpRequest request) {
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.method = "PUT";
+            if (json != null) {
+                event.station = Objects.toString(json.get("id"), null);
+                event.replicaId = Objects.toString(json.get("replicaId"), null);
+            }
+            event.lamport = request.getLamportClock();
+            event.bytes = request.getContentLength();
+            event.commit();
+        }
+    }
+
+    /**
+     * Handles PUT /heartbeat from ContentServers whose data has not changed.
+     * Renews the expiry lease of every record owned by the Replica-Id without a
+     * body, without touching the stored records and without writing to disk.
+     * <p>
+     * Status codes:
+     * - 200 → Lease renewed
+     * - 404 → Replica owns no records (expired or unknown): resend full records
+     * - 400 → Missing Replica-Id or Lamport-Clock header
+     */
+    private void handleHeartbeatRequest(HttpRequest request, OutputStream out) throws IOException {
+        String replicaId = request.getReplicaId();
+        if (replicaId == null || !request.hasLamportClock()) {
+            logger.warning("Invalid heartbeat: missing Replica-Id or Lamport-Clock header");
+            sendResponse(out, "400 Bad Request", "text/plain", new byte[0]);
+            return;
+        }
+        clock.update(request.getLamportClock());
+
+        boolean renewed;
+        FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+        lockWait.begin();
+        synchronized (weatherData) {
+            lockWait.end();
+            renewed = leases.heartbeat(replicaId, timeSource.currentTimeMillis());
+        }
+        FlightEvents.commitLockWait(lockWait, "heartbeat", null);
+
+        if (renewed) {
+            logger.fine("Heartbeat: renewed lease of replica " + replicaId);
+            sendResponse(out, "200 OK", "text/plain", new byte[0]);
+        } else {
+            logger.info("Heartbeat from unknown replica " + replicaId + " (sent 404)");
+            sendResponse(out, "404 Not Found", "text/plain", new byte[0]);
         }
     }
 
     /**
      * Processes a single JSON weather record.
      *
-     * @param json map containing parsed weather record fields
-     * @return true if this is the first record from the station (201),
-     *         false if it was an update (200)
+     * @param json    map containing parsed weather record fields
+     * @param request the PUT request (sender Lamport-Clock and Replica-Id)
+     * @return CREATED if this is the first record from the station (201), UPDATED if
+     *         it replaced one (200), UNCHANGED if it was invalid, a duplicate or stale
      */
-    private boolean processRecord(Map<String, Object> json) {
+    private StoreResult processRecord(Map<String, Object> json, HttpRequest request) {
         try {
             String station = (String) json.get("id");
             String temperature = String.valueOf(json.get("air_temp"));
             String humidity = String.valueOf(json.get("rel_hum"));
             String replicaId = (String) json.get("replicaId"); // optional
+            String state = (String) json.get("state");         // optional, rollup group
 
             if (station == null || temperature == null || humidity == null) {
                 logger.warning("Invalid record: missing required fields -> " + json);
-                return false;
+                return StoreResult.UNCHANGED;
             }
+            // one identity for leases, heartbeats and dedup: the Replica-Id header, else the body field
+            String sender = request.getReplicaId() != null ? request.getReplicaId() : replicaId;
 
+            long now = timeSource.currentTimeMillis();
             WeatherRecord record = new WeatherRecord(
                     station,
                     temperature,
                     humidity,
-                    replicaId,
+                    sender,   // stored so leases restored from disk use the same owner
+                    state,
                     clock.getTime(),
-                    System.currentTimeMillis()
+                    request.getLamportClock(),
+                    now
             );
 
+            WeatherRecord existing = null;
+            boolean stale;
+            FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+            lockWait.begin();
             synchronized (weatherData) {
-                Optional<WeatherRecord> existing = weatherData.stream()
-                        .filter(r -> r.getStation().equals(station))
-                        .findFirst();
-
-                existing.ifPresent(weatherData::remove);
-                weatherData.add(record);
-
-                logger.info("Stored weather data from station: " + station +
-                        " (replica=" + replicaId + ") @ timestamp " + clock.getTime());
+                lockWait.end();
+                if (sender != null) {
+                    dedup.markHandled(sender, request.getLamportClock());
+                }
+                stale = isStale(weatherData.get(station), sender, request.getLamportClock());
+                if (stale) {
+                    logger.info("Stale PUT for station " + station + " from replica " + sender + " @ "
+                            + request.getLamportClock() + " (acknowledged, newer record kept)");
+                } else {
+                    existing = weatherData.remove(station);   // re-insert at the end
+                    if (existing != null) {
+                        rollups.retract(existing);
+                    }
+                    weatherData.put(station, record);
+                    rollups.add(record);
+                    leases.renew(sender, station, now);
 
-                return existing.isEmpty(); // true if new, false if update
+                    logger.info("Stored weather data from station: " + station +
+                            " (replica=" + sender + ") @ timestamp " + clock.getTime());
+                }
             }
+            FlightEvents.commitLockWait(lockWait, "put", station);
+            if (stale) return StoreResult.UNCHANGED;
+            return existing == null ? StoreResult.CREATED : StoreResult.UPDATED;
 
         } catch (Exception e) {
             logger.warning("Failed to process record: " + json);
-            return false;
+            return StoreResult.UNCHANGED;
         }
     }
 
+    /**
+     * Returns true if the stored record came from the same replica with the same or a
+     * newer sender Lamport value, so the incoming update must not replace it.
+     * Lamport values of different replicas are not comparable and never make an update stale.
+     */
+    private static boolean isStale(WeatherRecord stored, String sender, int sourceLamport) {
+        return stored != null && sender != null
+                && sender.equals(stored.getReplicaId())
+                && stored.getSourceLamport() >= 0
+                && sourceLamport <= stored.getSourceLamport();
+    }
+
     /**
      * Handles HTTP-like GET requests.
      * - Returns 204 if no records exist
-     * - Otherwise returns JSON array of records (200 OK)
+     * - Otherwise returns the records (200 OK), as JSON or in the binary
+     *   format when the Accept header selects it
      */
-    private void handleGetRequest(PrintWriter out) {
+    private void handleGetRequest(HttpRequest request, OutputStream out) throws IOException {
         List<WeatherRecord> snapshot;
+        FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+        lockWait.begin();
         synchronized (weatherData) {
-            snapshot = new ArrayList<>(weatherData);
+            lockWait.end();
+            snapshot = new ArrayList<>(weatherData.values());
         }
+        FlightEvents.commitLockWait(lockWait, "get", null);
 
         if (snapshot.isEmpty()) {
-            out.println("HTTP/1.1 204 No Content");
-            out.println("Content-Length: 0");
-            out.println();
-            out.flush();
+            sendResponse(out, "204 No Content", null, new byte[0]);
             logger.info("GET request: no valid records (sent 204)");
             return;
         }
 
-        String json = gson.toJson(snapshot);
-        out.println("HTTP/1.1 200 OK");
-        out.println("Content-Type: application/json");
-        out.println("Content-Length: " + json.getBytes().length);
-        out.println();
-        out.println(json);
-        out.flush();
+        sendRecords(request, snapshot, out);
         logger.info("GET request: sent " + snapshot.size() + " record(s)");
     }
 
-    /** Returns valid (non-expired) records sorted by Lamport timestamp. */
-    private List<WeatherRecord> getValidSortedRecords() {
-        long now = System.currentTimeMillis();
-        List<WeatherRecord> validRecords = new ArrayList<>();
+    /** Sends records with 200 OK in the encoding negotiated via the Accept header. */
+    private void sendRecords(HttpRequest request, List<WeatherRecord> records, OutputStream out)
+            throws IOException {
+        FlightEvents.RequestStage encode = new FlightEvents.RequestStage();
+        encode.begin();
+        byte[] body = request.isBinaryAccept()
+                ? BinaryCodec.encodeRecords(records)
+                : gson.toJson(records).getBytes(StandardCharsets.UTF_8);
+        FlightEvents.commitStage(encode, FlightEvents.STAGE_ENCODE, "GET", body.length);
+
+        sendResponse(out, "200 OK",
+                request.isBinaryAccept() ? BinaryCodec.CONTENT_TYPE : BinaryCodec.JSON_CONTENT_TYPE, body);
+    }
 
+    /**
+     * Handles GET /aggregates.
+     * Returns the incrementally maintained per-state and global rollups (200 OK),
+     * or 204 if no records exist.
+     */
+    private void handleAggregatesRequest(OutputStream out) throws IOException {
+        Map<String, Object> snapshot;
+        FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+        lockWait.begin();
         synchronized (weatherData) {
-            for (WeatherRecord record : weatherData) {
-                if (now - record.getReceivedTime() <= EXPIRY_DURATION_MS) {
-                    validRecords.add(record);
+            lockWait.end();
+            snapshot = rollups.snapshot();
+        }
+        FlightEvents.commitLockWait(lockWait, "aggregates", null);
+
+        if (snapshot.isEmpty()) {
+            sendResponse(out, "204 No Content", null, new byte[0]);
+            logger.info("GET /aggregates: no records (sent 204)");
+            return;
+        }
+
+        sendResponse(out, "200 OK", BinaryCodec.JSON_CONTENT_TYPE,
+                gson.toJson(snapshot).getBytes(StandardCharsets.UTF_8));
+        logger.info("GET /aggregates: sent " + (snapshot.size() - 1) + " group(s)");
+    }
+
+    /**
+     * Handles GET /archive?station=ID&from=L&to=L (all parameters optional).
+     * Reads archived records from disk without touching the in-memory store.
+     * - 200 with matching records (JSON or binary, per Accept)
+     * - 204 if nothing matches
+     * - 400 if from/to are not integers
+     */
+    private void handleArchiveRequest(HttpRequest request, OutputStream out) throws IOException {
+        Map<String, String> params = parseQuery(request.getQuery());
+        int from;
+        int to;
+        try {
+            from = Integer.parseInt(params.getOrDefault("from", String.valueOf(Integer.MIN_VALUE)));
+            to = Integer.parseInt(params.getOrDefault("to", String.valueOf(Integer.MAX_VALUE)));
+        } catch (NumberFormatException e) {
+            sendResponse(out, "400 Bad Request", "text/plain", new byte[0]);
+            return;
+        }
+
+        List<WeatherRecord> records = archive.query(params.get("station"), from, to);
+        if (records.isEmpty()) {
+            sendResponse(out, "204 No Content", null, new byte[0]);
+            logger.info("GET /archive: no matching records (sent 204)");
+            return;
+        }
+
+        sendRecords(request, records, out);
+        logger.info("GET /archive: sent " + records.size() + " archived record(s)");
+    }
+
+    /** Extracts parameters from a query string such as "a=1&b=2" (null means none). */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+
+        for (String pair : query.split("&")) {
+            String[] kv = pair.split("=", 2);
+            if (kv.length == 2 && !kv[1].isEmpty()) {
+                try {
+                    params.put(kv[0], URLDecoder.decode(kv[1], "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    params.put(kv[0], kv[1]);
                 }
             }
         }
+        return params;
+    }
+
+    /**
+     * Returns valid (non-expired) records sorted by Lamport timestamp.
+     * Records whose lease expired are removed by the cleanup thread, so every stored
+     * record is valid (its receivedTime may be older if heartbeats kept it alive).
+     */
+    private List<WeatherRecord> getValidSortedRecords() {
+        List<WeatherRecord> validRecords;
+        synchronized (weatherData) {
+            validRecords = new ArrayList<>(weatherData.values());
+        }
         validRecords.sort(Comparator.comparingInt(WeatherRecord::getLamportTimestamp));
         return validRecords;
     }
 
     /** Saves data atomically to disk (weather records + Lamport clock). */
     private synchronized void saveToFile() {
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
         try {
-            File tempFile = new File(DATA_FILE + ".tmp");
+            File tempFile = new File(dataFile.getPath() + ".tmp");
+            List<WeatherRecord> records;
             try (Writer writer = new FileWriter(tempFile)) {
                 Map<String, Object> snapshot = new HashMap<>();
                 snapshot.put("clock", clock.getTime());
-                snapshot.put("records", weatherData);
+                FlightEvents.LockWait lockWait = new FlightEvents.LockWait();
+                lockWait.begin();
+                synchronized (weatherData) {
+                    lockWait.end();
+                    records = new ArrayList<>(weatherData.values());   // concurrent PUTs may modify the map
+                }
+                FlightEvents.commitLockWait(lockWait, "save", null);
+                snapshot.put("records", records);
                 gson.toJson(snapshot, writer);
             }
-            File mainFile = new File(DATA_FILE);
+            File mainFile = dataFile;
             if (mainFile.exists() && !mainFile.delete()) {
                 throw new IOException("Failed to delete old data file");
             }
             if (!tempFile.renameTo(mainFile)) {
                 throw new IOException("Failed to rename temp file to main file");
             }
+            commitPersistence(event, "save", records.size(), mainFile.length());
         } catch (IOException e) {
             logger.severe("Failed to save data: " + e.getMessage());
         }
@@ -342,16 +741,24 @@ public class AggregationServer {
     /**
      * Loads persisted data from disk (if any).
      * Restores weather records and Lamport clock value.
+     *
+     * @throws IOException if the file cannot be read or is corrupt; the server must not
+     *                     start (its first save would replace the file with an empty store)
      */
-    private synchronized void loadFromFile() {
-        File file = new File(DATA_FILE);
+    private synchronized void loadFromFile() throws IOException {
+        File file = dataFile;
         if (!file.exists()) return;
 
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
         try (Reader reader = new FileReader(file)) {
             Map<String, Object> snapshot =
                     gson.fromJson(reader, new TypeToken<Map<String, Object>>(){}.getType());
 
             weatherData.clear();
+            rollups.clear();
+            leases.clear();
+            dedup.clear();
 
             if (snapshot != null) {
                 // restore clock (shift back by 1 to avoid double increment)
@@ -361,14 +768,17 @@ public class AggregationServer {
                 }
 
                 List<Map<String, Object>> rawRecords = (List<Map<String, Object>>) snapshot.get("records");
+                long now = timeSource.currentTimeMillis();
                 if (rawRecords != null) {
                     for (Map<String, Object> r : rawRecords) {
                         String station = (String) r.get("station");
                         String temperature = (String) r.get("temperature");
                         String humidity = (String) r.get("humidity");
                         String replicaId = (String) r.get("replicaId");
+                        String state = (String) r.get("state");
 
                         Number lamport = (Number) r.get("lamportTimestamp");
+                        Number sourceLamport = (Number) r.get("sourceLamport");
                         Number received = (Number) r.get("receivedTime");
 
                         WeatherRecord record = new WeatherRecord(
@@ -376,25 +786,45 @@ public class AggregationServer {
                                 temperature,
                                 humidity,
                                 replicaId,
+                                state,
                                 lamport != null ? lamport.intValue() : 0,
-                                received != null ? received.longValue() : System.currentTimeMillis()
+                                sourceLamport != null ? sourceLamport.intValue() : -1,
+                                received != null ? received.longValue() : now
                         );
-                        weatherData.add(record);
+                        weatherData.put(station, record);
+                        rollups.add(record);
+                        // heartbeats renew leases without touching receivedTime, and are not
+                        // persisted: every restored record gets a full lease from now on
+                        leases.renew(replicaId, station, Math.max(record.getReceivedTime(), now));
+                        if (replicaId != null && record.getSourceLamport() >= 0) {
+                            dedup.markHandled(replicaId, record.getSourceLamport());   // retries after restart stay duplicates
+                        }
                     }
                 }
             }
 
             logger.info("Restored " + weatherData.size() +
-                    " records and clock=" + clock.getTime() + " from " + DATA_FILE);
+                    " records and clock=" + clock.getTime() + " from " + dataFile);
+            commitPersistence(event, "load", weatherData.size(), file.length());
+        } catch (RuntimeException e) {   // JsonSyntaxException, or a field of the wrong type
+            throw new IOException("Corrupt data file " + file + ": " + e.getMessage(), e);
         }
-        catch (IOException e) {
-            logger.severe("Failed to load data: " + e.getMessage());
+    }
+
+    /** Commits a persistence event for the data file. */
+    private void commitPersistence(FlightEvents.Persistence event, String operation, int records, long bytes) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = dataFile.getName();
+            event.records = records;
+            event.bytes = bytes;
+            event.commit();
         }
     }
 
     /** Main entry point. Default port = 4567, or first CLI arg. */
     public static void main(String[] args) {
-        int port = 4567;
+        int port = ServerConfig.DEFAULT_PORT;
         if (args.length > 0) {
             try {
                 port = Integer.parseInt(args[0]);
@@ -402,6 +832,6 @@ public class AggregationServer {
                 logger.warning("Invalid port argument, using default 4567.");
             }
         }
-        new AggregationServer(port).start();
+        new AggregationServer(port).start();   // the accept thread keeps the JVM running
     }
 }
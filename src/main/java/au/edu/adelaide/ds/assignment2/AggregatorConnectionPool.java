@@ -0,0 +1,277 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.logging.Logger;
+
+/**
+ * AggregatorConnectionPool shares keep-alive connections to one AggregationServer
+ * between many feeds, so an agent process does not open a socket per update.
+ * - send() borrows an idle connection (or opens one), performs one request/response
+ *   exchange and returns the connection to the pool
+ * - A pooled connection the server has since closed is discarded and the request
+ *   is retried once on a fresh connection
+ * - sendPipelined() writes a whole batch of requests before reading the responses
+ * - At most maxIdle connections are kept open
+ * - Reachability backoff: after a failed connect, new connections are refused
+ *   without touching the network until the backoff expires; then a single caller
+ *   probes. A down aggregator costs one connect attempt per backoff period, not
+ *   one per feed. isReachable() lets callers skip work while it is down.
+ */
+public class AggregatorConnectionPool implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(AggregatorConnectionPool.class.getName());
+    private static final int CONNECT_TIMEOUT_MS = 3_000;
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final long BASE_PROBE_BACKOFF_MS = 500;
+    private static final long MAX_PROBE_BACKOFF_MS = 30_000;
+
+    private final String host;
+    private final int port;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    private int connectFailures;   // consecutive failed connects, guarded by this
+    private long nextProbeAt;      // earliest time of the next connect attempt while down, guarded by this
+    private boolean probing;       // a probe connect is in flight, guarded by this
+
+    /**
+     * @param host    AggregationServer host
+     * @param port    AggregationServer port
+     * @param maxIdle maximum number of idle connections kept open
+     */
+    public AggregatorConnectionPool(String host, int port, int maxIdle) {
+        this.host = host;
+        this.port = port;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Sends one request and reads the response.
+     *
+     * @param head request line and headers (must ask for keep-alive to be reusable)
+     * @param body request body, may be empty
+     * @return the response status line, or null if the server closed without answering
+     * @throws IOException if the server cannot be reached
+     */
+    public String send(byte[] head, byte[] body) throws IOException {
+        Connection connection = idle.pollFirst();
+        if (connection != null) {
+            try {
+                return exchange(connection, head, body);
+            } catch (IOException e) {
+                // stale pooled connection: the server closed it while idle
+                connection.close();
+                logger.fine("Discarded stale pooled connection: " + e.getMessage());
+            }
+        }
+        return exchange(open(), head, body);
+    }
+
+    /**
+     * Sends a batch of requests on one connection without waiting for responses
+     * in between (HTTP pipelining), then reads the responses in order.
+     *
+     * @param requests {head, body} pairs; heads must ask for keep-alive
+     * @return status lines of the responses received, in request order; shorter
+     *         than the batch if the connection dropped part-way
+     * @throws IOException if the server cannot be reached at all
+     */
+    public List<String> sendPipelined(List<byte[][]> requests) throws IOException {
+        Connection connection = idle.pollFirst();
+        if (connection != null) {
+            List<String> statusLines = pipeline(connection, requests);
+            if (!statusLines.isEmpty()) return statusLines;
+            // stale pooled connection: nothing was answered, resend on a fresh one
+            logger.fine("Discarded stale pooled connection before pipelined batch");
+        }
+        return pipeline(open(), requests);
+    }
+
+    /**
+     * Returns false while the aggregator is known to be down and no probe is due,
+     * so callers can skip a request instead of failing it.
+     */
+    public synchronized boolean isReachable() {
+        return connectFailures == 0 || (!probing && System.currentTimeMillis() >= nextProbeAt);
+    }
+
+    private List<String> pipeline(Connection connection, List<byte[][]> requests) {
+        List<String> statusLines = new ArrayList<>(requests.size());
+        try {
+            for (byte[][] request : requests) {
+                connection.out.write(request[0]);
+                connection.out.write(request[1]);
+            }
+            connection.out.flush();
+
+            for (int i = 0; i < requests.size(); i++) {
+                String statusLine = readResponse(connection);
+                if (statusLine == null) break;
+                statusLines.add(statusLine);
+            }
+        } catch (IOException e) {
+            logger.warning("Pipelined batch interrupted after " + statusLines.size()
+                    + " of " + requests.size() + " response(s): " + e.getMessage());
+            connection.close();   // unknown position in the response stream: never pool it
+            return statusLines;
+        }
+        release(connection);
+        return statusLines;
+    }
+
+    private String exchange(Connection connection, byte[] head, byte[] body) throws IOException {
+        try {
+            connection.out.write(head);
+            connection.out.write(body);
+            connection.out.flush();
+
+            String statusLine = readResponse(connection);
+            release(connection);
+            return statusLine;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads one response: status line, headers, and the body (skipped) so the
+     * connection is positioned at the next response.
+     *
+     * @return the status line, or null if the server closed the connection
+     */
+    private String readResponse(Connection connection) throws IOException {
+        String statusLine = readLine(connection.in);
+        if (statusLine == null) {
+            connection.reusable = false;
+            return null;
+        }
+
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(connection.in)) != null && !line.isEmpty()) {
+            String[] parts = line.split(":", 2);
+            if (parts.length < 2) continue;
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(parts[1].trim());
+            } else if (name.equalsIgnoreCase("Connection") && parts[1].trim().equalsIgnoreCase("close")) {
+                connection.reusable = false;
+            }
+        }
+        if (line == null) {
+            connection.reusable = false;
+        }
+        connection.in.readNBytes(contentLength);
+        return statusLine;
+    }
+
+    /** Returns a connection to the pool, or closes it if it cannot be reused. */
+    private void release(Connection connection) {
+        if (connection.reusable && idle.size() < maxIdle) {
+            idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * Opens a new connection, unless the aggregator is down and another caller
+     * probes it or the probe backoff has not expired.
+     *
+     * @throws ConnectException without any network I/O while the aggregator is down
+     */
+    private Connection open() throws IOException {
+        synchronized (this) {
+            if (connectFailures > 0) {
+                long wait = nextProbeAt - System.currentTimeMillis();
+                if (probing || wait > 0) {
+                    throw new ConnectException("Aggregator " + host + ":" + port + " unreachable, next probe in "
+                            + Math.max(wait, 0) + " ms");
+                }
+                probing = true;
+            }
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            connectFailed();
+            throw e;
+        }
+        connected();
+        return new Connection(socket);
+    }
+
+    private synchronized void connectFailed() {
+        connectFailures++;
+        long backoff = Math.min(MAX_PROBE_BACKOFF_MS, BASE_PROBE_BACKOFF_MS << Math.min(connectFailures - 1, 16));
+        nextProbeAt = System.currentTimeMillis() + backoff;
+        probing = false;
+        if (connectFailures == 1) {
+            logger.warning("Aggregator " + host + ":" + port + " unreachable, backing off");
+        }
+    }
+
+    private synchronized void connected() {
+        if (connectFailures > 0) {
+            logger.info("Aggregator " + host + ":" + port + " reachable again after "
+                    + connectFailures + " failed probe(s)");
+        }
+        connectFailures = 0;
+        probing = false;
+    }
+
+    /** Reads one CRLF/LF-terminated line as ASCII bytes. */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (b != '\r') line.append((char) b);
+        }
+        return (b == -1 && line.length() == 0) ? null : line.toString();
+    }
+
+    /** Closes all idle connections. */
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    /** One open socket with buffered streams. */
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private boolean reusable = true;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void close() {
+            reusable = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * BinaryCodec implements the compact wire format used as an alternative to JSON.
+ * Selected via "Content-Type" (PUT) and "Accept" (GET) = application/x-weather-binary.
+ * .
+ * Building blocks:
+ * - varint: unsigned LEB128; signed values use zigzag encoding
+ * - string: varint length + UTF-8 bytes
+ * - value:  tag byte, then either a decimal (zigzag unscaled + varint scale),
+ *           a string, or nothing (null); decimals are only used when they round-trip exactly
+ * .
+ * PUT body (one feed entry):
+ *   magic, version, varint fieldCount, fields...
+ *   field = varint key (1..n index into KNOWN_FIELDS, 0 = literal string key follows), value
+ * .
+ * GET body (list of records):
+ *   magic, version, varint dictSize, strings... (station / replica / state IDs),
+ *   varint recordCount, records...
+ *   record = varint station ref, value temperature, value humidity,
+ *            varint replica ref+1, varint state ref+1 (0 = absent),
+ *            zigzag lamport, zigzag sourceLamport (-1 = unknown), varint receivedTime
+ * .
+ * Version 2 added sourceLamport to records. Feed entries are unchanged, so PUT
+ * bodies of version 1 are still accepted.
+ */
+public final class BinaryCodec {
+
+    public static final String CONTENT_TYPE = "application/x-weather-binary";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    private static final int MAGIC = 0xB7;
+    private static final int VERSION = 2;
+    private static final int FIELDS_MIN_VERSION = 1;     // oldest accepted feed entry layout
+    private static final int TAG_STRING = 0;
+    private static final int TAG_DECIMAL = 1;
+    private static final int TAG_NULL = 2;
+
+    /** Field names of the feed format, encoded as their index + 1. */
+    private static final List<String> KNOWN_FIELDS = List.of(
+            "id", "name", "state", "time_zone", "lat", "lon", "local_date_time",
+            "local_date_time_full", "air_temp", "apparent_t", "cloud", "dewpt", "press",
+            "rel_hum", "wind_dir", "wind_spd_kmh", "wind_spd_kt", "lamport", "replicaId"
+    );
+    private static final Map<String, Integer> FIELD_CODES = new HashMap<>();
+    static {
+        for (int i = 0; i < KNOWN_FIELDS.size(); i++) {
+            FIELD_CODES.put(KNOWN_FIELDS.get(i), i + 1);
+        }
+    }
+
+    private BinaryCodec() {}
+
+    /**
+     * Returns true if the given Content-Type/Accept header value selects the binary format.
+     *
+     * @param headerValue header value, may be null
+     * @return true for application/x-weather-binary
+     */
+    public static boolean isBinary(String headerValue) {
+        return headerValue != null && headerValue.contains(CONTENT_TYPE);
+    }
+
+    /**
+     * Encodes a single feed entry (as sent by ContentServer).
+     *
+     * @param fields key/value pairs of the entry
+     * @return encoded bytes
+     */
+    public static byte[] encodeFields(Map<String, String> fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+        writeVarint(bytes, fields.size());
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            Integer code = FIELD_CODES.get(entry.getKey());
+            if (code != null) {
+                writeVarint(bytes, code);
+            } else {
+                writeVarint(bytes, 0);
+                writeString(bytes, entry.getKey());
+            }
+            writeValue(bytes, entry.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a feed entry produced by encodeFields().
+     *
+     * @param data encoded bytes
+     * @return decoded key/value pairs, in wire order
+     * @throws IOException if the data is malformed
+     */
+    public static Map<String, String> decodeFields(byte[] data) throws IOException {
+        return decodeFields(data, 0, data.length);
+    }
+
+    /**
+     * Decodes a feed entry from a region of a larger buffer.
+     *
+     * @param data   buffer holding the encoded entry
+     * @param offset start of the entry
+     * @param length length of the entry in bytes
+     * @return decoded key/value pairs, in wire order
+     * @throws IOException if the data is malformed
+     */
+    public static Map<String, String> decodeFields(byte[] data, int offset, int length) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(data, offset, length);
+        readPreamble(in, FIELDS_MIN_VERSION);
+        int count = readVarintInt(in);
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int code = readVarintInt(in);
+            String key;
+            if (code == 0) {
+                key = readString(in);
+            } else if (code <= KNOWN_FIELDS.size()) {
+                key = KNOWN_FIELDS.get(code - 1);
+            } else {
+                throw new IOException("Unknown field code " + code);
+            }
+            fields.put(key, readValue(in));
+        }
+        return fields;
+    }
+
+    /**
+     * Encodes a list of records (GET response body).
+     *
+     * @param records records to encode
+     * @return encoded bytes
+     */
+    public static byte[] encodeRecords(List<WeatherRecord> records) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (WeatherRecord r : records) {
+            dictionary.putIfAbsent(r.getStation(), dictionary.size());
+            if (r.getReplicaId() != null) dictionary.putIfAbsent(r.getReplicaId(), dictionary.size());
+            if (r.getState() != null) dictionary.putIfAbsent(r.getState(), dictionary.size());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + records.size() * 24);
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+        writeVarint(bytes, dictionary.size());
+        for (String id : dictionary.keySet()) {
+            writeString(bytes, id);
+        }
+
+        writeVarint(bytes, records.size());
+        for (WeatherRecord r : records) {
+            writeVarint(bytes, dictionary.get(r.getStation()));
+            writeValue(bytes, r.getTemperature());
+            writeValue(bytes, r.getHumidity());
+            writeVarint(bytes, r.getReplicaId() == null ? 0 : dictionary.get(r.getReplicaId()) + 1);
+            writeVarint(bytes, r.getState() == null ? 0 : dictionary.get(r.getState()) + 1);
+            writeVarint(bytes, zigzag(r.getLamportTimestamp()));
+            writeVarint(bytes, zigzag(r.getSourceLamport()));
+            writeVarint(bytes, r.getReceivedTime());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a list of records produced by encodeRecords().
+     *
+     * @param data encoded bytes
+     * @return decoded records
+     * @throws IOException if the data is malformed
+     */
+    public static List<WeatherRecord> decodeRecords(byte[] data) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        readPreamble(in, VERSION);
+
+        int dictSize = readVarintInt(in);
+        String[] dictionary = new String[dictSize];
+        for (int i = 0; i < dictSize; i++) {
+            dictionary[i] = readString(in);
+        }
+
+        int count = readVarintInt(in);
+        List<WeatherRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String station = lookup(dictionary, readVarintInt(in));
+            String temperature = readValue(in);
+            String humidity = readValue(in);
+            int replicaRef = readVarintInt(in);
+            int stateRef = readVarintInt(in);
+            int lamport = (int) unzigzag(readVarint(in));
+            int sourceLamport = (int) unzigzag(readVarint(in));
+            long received = readVarint(in);
+            records.add(new WeatherRecord(
+                    station,
+                    temperature,
+                    humidity,
+                    replicaRef == 0 ? null : lookup(dictionary, replicaRef - 1),
+                    stateRef == 0 ? null : lookup(dictionary, stateRef - 1),
+                    lamport,
+                    sourceLamport,
+                    received
+            ));
+        }
+        return records;
+    }
+
+    // --- Primitives ---
+
+    private static void readPreamble(InputStream in, int minVersion) throws IOException {
+        int magic = in.read();
+        int version = in.read();
+        if (magic != MAGIC || version < minVersion || version > VERSION) {
+            throw new IOException("Not a weather binary payload (magic=" + magic + ", version=" + version + ")");
+        }
+    }
+
+    private static String lookup(String[] dictionary, int ref) throws IOException {
+        if (ref < 0 || ref >= dictionary.length) {
+            throw new IOException("Dictionary reference out of range: " + ref);
+        }
+        return dictionary[ref];
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(TAG_NULL);
+            return;
+        }
+        BigDecimal decimal = toExactDecimal(value);
+        if (decimal != null) {
+            out.write(TAG_DECIMAL);
+            writeVarint(out, zigzag(decimal.unscaledValue().longValue()));
+            writeVarint(out, decimal.scale());
+        } else {
+            out.write(TAG_STRING);
+            writeString(out, value);
+        }
+    }
+
+    private static String readValue(InputStream in) throws IOException {
+        int tag = in.read();
+        if (tag == TAG_DECIMAL) {
+            long unscaled = unzigzag(readVarint(in));
+            int scale = readVarintInt(in);
+            return BigDecimal.valueOf(unscaled, scale).toPlainString();
+        } else if (tag == TAG_STRING) {
+            return readString(in);
+        } else if (tag == TAG_NULL) {
+            return null;
+        }
+        throw new IOException("Unknown value tag " + tag);
+    }
+
+    /** Returns the value as a decimal only if it decodes back to the identical string. */
+    private static BigDecimal toExactDecimal(String value) {
+        if (value == null || value.isEmpty() || value.length() > 18) return null;
+        try {
+            BigDecimal decimal = new BigDecimal(value);
+            if (decimal.scale() < 0 || !decimal.toPlainString().equals(value)) return null;
+            return decimal;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, utf8.length);
+        out.write(utf8, 0, utf8.length);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        int length = readVarintInt(in);
+        if (length > in.available()) {
+            throw new IOException("String length " + length + " exceeds payload");
+        }
+        byte[] utf8 = in.readNBytes(length);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated varint");
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static int readVarintInt(InputStream in) throws IOException {
+        long value = readVarint(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,49 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool hands out fixed-size heap ByteBuffers for connection I/O so that
+ * each connection reuses one buffer instead of allocating readers per request.
+ * - acquire() returns an empty buffer in read mode (position = limit = 0)
+ * - release() returns it to the pool (up to MAX_POOLED buffers are kept)
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 16 * 1024;   // also the maximum header block size
+    private static final int MAX_POOLED = 256;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Takes a buffer from the pool, allocating a new one if the pool is empty.
+     *
+     * @return an empty buffer ready to be filled
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        } else {
+            pooled.decrementAndGet();
+        }
+        buffer.clear().flip();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond MAX_POOLED are left to the GC.
+     *
+     * @param buffer buffer obtained from acquire()
+     */
+    public void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.logging.Logger;
+
+/**
+ * ClockStore keeps a ContentServer's Lamport clock monotonic across restarts, so
+ * the AggregationServer can deduplicate by (replicaId, Lamport value).
+ * - The file holds an upper bound of every value the replica may have used
+ * - reserve() persists a new bound (fsync) only once every BLOCK_SIZE ticks
+ * - On startup the clock resumes from the stored bound; at most BLOCK_SIZE values
+ *   are skipped after a crash, and none are ever reused
+ */
+public class ClockStore {
+
+    private static final Logger logger = Logger.getLogger(ClockStore.class.getName());
+    static final int BLOCK_SIZE = 1000;
+
+    private final File file;
+    private int reserved;   // values up to this bound may be used without a write (guarded by this)
+
+    /**
+     * @param file file holding the reserved bound (created on first reserve)
+     */
+    public ClockStore(File file) {
+        this.file = file;
+        this.reserved = read();
+    }
+
+    /** Returns the value the clock should resume from (0 on first start). */
+    public synchronized int restore() {
+        return reserved;
+    }
+
+    /**
+     * Makes sure a Lamport value is covered by the persisted bound before it is sent.
+     *
+     * @param value value about to be used
+     */
+    public synchronized void reserve(int value) {
+        if (value <= reserved) return;
+        int bound = value + BLOCK_SIZE;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create clock directory " + parent);
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(String.valueOf(bound).getBytes(StandardCharsets.US_ASCII));
+                out.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            reserved = bound;
+        } catch (IOException e) {
+            logger.severe("Failed to persist Lamport clock to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private int read() {
+        if (!file.exists()) return 0;
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+            return Math.max(0, Integer.parseInt(text));
+        } catch (IOException | NumberFormatException e) {
+            logger.warning("Ignoring unreadable clock file " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+}
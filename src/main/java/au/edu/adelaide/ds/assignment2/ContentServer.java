@@ -2,6 +2,7 @@ package au.edu.adelaide.ds.assignment2;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -11,52 +12,84 @@ import com.google.gson.Gson;
 /**
  * ContentServer is a replica that:
  * - Reads weather data from a file (key:value entries)
- * - Periodically sends one record as JSON via HTTP PUT
- * - Maintains and sends Lamport timestamp for ordering
+ * - Periodically sends one record via HTTP PUT (JSON, or the compact binary format)
+ * - Maintains and sends Lamport timestamp for ordering; the clock survives restarts
+ *   (ClockStore), so (Replica-Id, Lamport-Clock) identifies an update for server-side dedup
+ * - Sends a body-less heartbeat instead of the full record when the data has not
+ *   changed since the last delivered update (renews the server-side expiry lease)
  * - Retries failed PUTs up to 3 times (per update)
+ * - Keeps updates that still fail in a durable outbox and replays them in
+ *   pipelined batches once the AggregationServer is reachable again
  */
 public class ContentServer implements Runnable {
 
     private static final Logger logger = Logger.getLogger(ContentServer.class.getName());
-    private static final int UPDATE_INTERVAL_MS = 10_000;   // send every 10 seconds
+    static final int UPDATE_INTERVAL_MS = 10_000;           // send every 10 seconds
     private static final int RETRY_DELAY_MS = 5_000;        // retry after 5 seconds
-    private static final int MAX_RETRIES = 3;
+    static final int MAX_RETRIES = 3;
+    private static final int REPLAY_BATCH_SIZE = 128;       // updates per pipelined replay batch
+    private static final String OUTBOX_DIR = "outbox";
+    private static final Gson gson = new Gson();            // shared: thread-safe, and agents run thousands of feeds
 
     private final String serverHost;
     private final int serverPort;
     private final String filename;
     private final String replicaId;
+    private final boolean binary;   // send BinaryCodec payloads instead of JSON
+    private final Outbox outbox;
+    private final ClockStore clockStore;
+    private volatile Map<String, String> lastDelivered;   // record of the last accepted full PUT
 
     private final LamportClock clock = new LamportClock();
-    private final Gson gson = new Gson();
 
     public ContentServer(String serverHost, int serverPort, String filename, String replicaId) {
+        this(serverHost, serverPort, filename, replicaId, false);
+    }
+
+    public ContentServer(String serverHost, int serverPort, String filename, String replicaId, boolean binary) {
+        this(serverHost, serverPort, filename, replicaId, binary, true);
+    }
+
+    /**
+     * @param coalesce when replaying the outbox, send only the latest update per station
+     */
+    public ContentServer(String serverHost, int serverPort, String filename, String replicaId,
+                         boolean binary, boolean coalesce) {
+        this(serverHost, serverPort, filename, replicaId, binary, coalesce, new File(OUTBOX_DIR));
+    }
+
+    /**
+     * @param outboxDir directory for the outbox log and the persisted Lamport clock
+     */
+    ContentServer(String serverHost, int serverPort, String filename, String replicaId,
+                  boolean binary, boolean coalesce, File outboxDir) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
         this.filename = filename;
         this.replicaId = replicaId;
+        this.binary = binary;
+        this.outbox = new Outbox(new File(outboxDir, replicaId + ".log"), coalesce);
+        this.clockStore = new ClockStore(new File(outboxDir, replicaId + ".clock"));
+        clock.setTime(clockStore.restore());
     }
 
     @Override
     public void run() {
+        AggregatorConnectionPool connections = new AggregatorConnectionPool(serverHost, serverPort, 1);
         try {
             while (true) {
-                Map<String, String> record = readWeatherFile();
-
-                if (record.isEmpty()) {
-                    logger.warning("[" + replicaId + "] No valid record found in " + filename);
-                } else {
-                    // Tick Lamport once, store value
-                    int lamportValue = clock.tick();
-                    record.put("lamport", String.valueOf(lamportValue));
-                    record.put("replicaId", replicaId);
-
-                    // Serialize to JSON
-                    String jsonPayload = gson.toJson(record);   //"{\"badField\":\"oops\"}"; for 400 test otherwise gson.toJson(record);
-                    logger.info("[" + replicaId + "] Sending payload: " + jsonPayload);
-
-                    // Attempt PUT
-                    sendPutRequest(jsonPayload);
+                Update update = prepareUpdate();
+                boolean backlog = hasBacklog();
+
+                if (update != null) {
+                    if (backlog) {
+                        enqueue(update);   // keep Lamport order behind older undelivered updates
+                    } else if (!sendPutRequest(update)) {   // Attempt PUT
+                        enqueue(update);
+                    }
+                }
+                if (backlog) {
+                    replayOutbox(connections);   // one catch-up attempt instead of a new retry cycle
                 }
 
                 Thread.sleep(UPDATE_INTERVAL_MS);   // send every 10 seconds
@@ -66,7 +99,56 @@ public class ContentServer implements Runnable {
             logger.warning("[" + replicaId + "] Interrupted and shutting down.");
         } catch (Exception e) {
             logger.log(Level.SEVERE, "[" + replicaId + "] Error running content server", e);
+        } finally {
+            connections.close();
+        }
+    }
+
+    /**
+     * Reads the feed file, ticks the Lamport clock once and encodes the record.
+     * If the record equals the last delivered one, a heartbeat is returned instead.
+     *
+     * @return the encoded update or heartbeat, or null if the file holds no valid record
+     * @throws IOException if the file cannot be read or has no id field
+     */
+    Update prepareUpdate() throws IOException {
+        FlightEvents.RequestStage event = new FlightEvents.RequestStage();
+        event.begin();
+        Update update = encodeUpdate();
+        if (update != null) {
+            commitStage(event, FlightEvents.STAGE_PREPARE, update);
+        }
+        return update;
+    }
+
+    private Update encodeUpdate() throws IOException {
+        Map<String, String> record = readWeatherFile();
+        if (record.isEmpty()) {
+            logger.warning("[" + replicaId + "] No valid record found in " + filename);
+            return null;
+        }
+
+        // Tick Lamport once, store value
+        int lamportValue = clock.tick();
+        clockStore.reserve(lamportValue);
+        if (record.equals(lastDelivered)) {
+            logger.info("[" + replicaId + "] Data unchanged, sending heartbeat @" + lamportValue);
+            return Update.heartbeat(lamportValue, record.get("id"));
+        }
+        Map<String, String> unstamped = new HashMap<>(record);
+        record.put("lamport", String.valueOf(lamportValue));
+        record.put("replicaId", replicaId);
+
+        // Serialize to JSON or binary
+        if (binary) {
+            byte[] payload = BinaryCodec.encodeFields(record);
+            logger.info("[" + replicaId + "] Sending binary payload (" + payload.length + " bytes)");
+            return new Update(lamportValue, record.get("id"), payload, BinaryCodec.CONTENT_TYPE, unstamped);
         }
+        String jsonPayload = gson.toJson(record);   //"{\"badField\":\"oops\"}"; for 400 test otherwise gson.toJson(record);
+        logger.info("[" + replicaId + "] Sending payload: " + jsonPayload);
+        return new Update(lamportValue, record.get("id"), jsonPayload.getBytes(StandardCharsets.UTF_8),
+                BinaryCodec.JSON_CONTENT_TYPE, unstamped);
     }
 
     /**
@@ -105,62 +187,187 @@ public class ContentServer implements Runnable {
     }
 
     /**
-     * Sends an HTTP PUT request with JSON payload to AggregationServer.
+     * Builds the request line and headers for a PUT of the given update.
+     *
+     * @param update    encoded update
+     * @param keepAlive ask the server to keep the connection open (shared connections)
+     * @return ASCII header block including the terminating blank line
+     */
+    byte[] requestHead(Update update, boolean keepAlive) {
+        String headers =
+                (update.heartbeat ? "PUT /heartbeat HTTP/1.1\r\n" : "PUT /weather.json HTTP/1.1\r\n") +
+                        "User-Agent: ATOMClient/1/0\r\n" +
+                        "Host: " + serverHost + ":" + serverPort + "\r\n" +
+                        (update.heartbeat ? "" : "Content-Type: " + update.contentType + "\r\n") +
+                        "Content-Length: " + update.payload.length + "\r\n" +
+                        "Lamport-Clock: " + update.lamport + "\r\n" +
+                        "Replica-Id: " + replicaId + "\r\n" +
+                        (keepAlive ? "Connection: keep-alive\r\n" : "") +
+                        "\r\n";
+
+        // Log raw request (binary bodies are logged by size only)
+        logger.info("\n--- RAW PUT REQUEST ---\n" + headers +
+                (binary ? "<" + update.payload.length + " binary bytes>" : new String(update.payload, StandardCharsets.UTF_8)) +
+                "\n------------------------");
+        return headers.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Logs the server's response to a PUT.
+     *
+     * @param statusLine response status line, or null if the server closed the connection
+     * @return true if the update was accepted (201, 200 or 204)
+     */
+    boolean checkStatus(String statusLine) {
+        if (statusLine == null) {
+            logger.warning("[" + replicaId + "] No response from server.");
+            return false;
+        }
+
+        if (statusLine.contains("400")) {
+            logger.warning("[" + replicaId + "] Server rejected request (400 Bad Request)");
+        } else if (statusLine.contains("404")) {
+            logger.warning("[" + replicaId + "] Server has no lease for this replica (404), full record needed");
+        } else if (statusLine.contains("500")) {
+            logger.severe("[" + replicaId + "] Server error (500 Internal Server Error)");
+        } else if (statusLine.contains("201")) {
+            logger.info("[" + replicaId + "] Server accepted PUT (201 Created)");
+            return true;
+        } else if (statusLine.contains("200")) {
+            logger.info("[" + replicaId + "] Server accepted PUT (200 OK)");
+            return true;
+        } else if (statusLine.contains("204")) {
+            logger.info("[" + replicaId + "] No Content (204) – empty payload sent");
+            return true;
+        } else {
+            logger.warning("[" + replicaId + "] Unexpected response: " + statusLine);
+        }
+        return false;
+    }
+
+    /** Returns true if the outbox holds undelivered updates. */
+    boolean hasBacklog() {
+        return !outbox.isEmpty();
+    }
+
+    /** Remembers an accepted full update so unchanged data can be sent as a heartbeat. */
+    void delivered(Update update) {
+        if (!update.heartbeat) {
+            lastDelivered = update.record;
+        }
+    }
+
+    /**
+     * Durably records an update that could not be delivered. A failed heartbeat
+     * is not queued; either way the next cycle sends the full record again.
+     */
+    void enqueue(Update update) {
+        lastDelivered = null;
+        if (update.heartbeat) return;
+        outbox.append(update);
+        logger.warning("[" + replicaId + "] Update @" + update.lamport + " saved to outbox for later replay");
+    }
+
+    /**
+     * Replays undelivered updates from the outbox in Lamport order, in pipelined
+     * batches of REPLAY_BATCH_SIZE over one keep-alive connection. Each batch waits
+     * for all of its responses before the next is sent, which bounds the load on
+     * the AggregationServer. Updates answered with 5xx, or not answered, stay in
+     * the outbox; other responses (including 400) count as delivered.
+     *
+     * @param connections connections to the AggregationServer
+     * @return true if the outbox is now empty
+     */
+    boolean replayOutbox(AggregatorConnectionPool connections) {
+        synchronized (outbox) {   // appends for this replica wait until the outbox is rewritten
+            List<Update> pending = outbox.pending();
+            List<Update> undelivered = new ArrayList<>();
+            int next = 0;
+
+            while (next < pending.size()) {
+                List<Update> batch = pending.subList(next, Math.min(pending.size(), next + REPLAY_BATCH_SIZE));
+                next += batch.size();
+
+                List<byte[][]> requests = new ArrayList<>(batch.size());
+                for (Update update : batch) {
+                    requests.add(new byte[][]{requestHead(update, true), update.payload});
+                }
+
+                List<String> statusLines;
+                try {
+                    statusLines = connections.sendPipelined(requests);
+                } catch (IOException e) {
+                    logger.warning("[" + replicaId + "] Outbox replay failed: " + e.getMessage());
+                    statusLines = Collections.emptyList();
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    String statusLine = i < statusLines.size() ? statusLines.get(i) : null;
+                    if (statusLine == null || isServerError(statusLine)) {
+                        undelivered.add(batch.get(i));
+                    }
+                }
+                if (statusLines.size() < batch.size()) {
+                    undelivered.addAll(pending.subList(next, pending.size()));   // server went away again
+                    break;
+                }
+            }
+
+            if (undelivered.size() < pending.size()) {
+                outbox.retain(undelivered);   // nothing delivered: skip the fsync'd rewrite
+            }
+            logger.info("[" + replicaId + "] Outbox replay: " + (pending.size() - undelivered.size())
+                    + " delivered, " + undelivered.size() + " pending");
+            return undelivered.isEmpty();
+        }
+    }
+
+    private static boolean isServerError(String statusLine) {
+        String[] parts = statusLine.split(" ");
+        return parts.length < 2 || parts[1].startsWith("5");
+    }
+
+    /**
+     * Sends an HTTP PUT request with the encoded payload to AggregationServer.
      * Retries up to 3 times on failure.
+     *
+     * @return true if the server accepted the update
      */
-    private void sendPutRequest(String jsonPayload) {
+    private boolean sendPutRequest(Update update) {
         int attempt = 0;
         boolean success = false;
 
         while (attempt < MAX_RETRIES && !success) {
+            FlightEvents.RequestStage send = new FlightEvents.RequestStage();
+            send.begin();
             try (Socket socket = new Socket(serverHost, serverPort);
-                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                 OutputStream out = new BufferedOutputStream(socket.getOutputStream());
                  BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
 
-                // Build headers
-                String request =
-                        "PUT /weather.json HTTP/1.1\r\n" +
-                                "User-Agent: ATOMClient/1/0\r\n" +
-                                "Host: " + serverHost + ":" + serverPort + "\r\n" +
-                                "Content-Type: application/json\r\n" +
-                                "Content-Length: " + jsonPayload.getBytes().length + "\r\n" +
-                                "Lamport-Clock: " + clock.getTime() + "\r\n" +
-                                "\r\n" +
-                                jsonPayload;
-
-                // Log raw request
-                logger.info("\n--- RAW PUT REQUEST ---\n" + request + "\n------------------------");
-
                 // Send request
-                out.print(request);
+                out.write(requestHead(update, false));
+                out.write(update.payload);
                 out.flush();
 
                 // Read response
                 String statusLine = in.readLine();
                 if (statusLine == null) {
-                    logger.warning("[" + replicaId + "] No response from server.");
-                    return;
+                    return checkStatus(null);
                 }
-
-                if (statusLine.contains("400")) {
-                    logger.warning("[" + replicaId + "] Server rejected request (400 Bad Request)");
-                } else if (statusLine.contains("500")) {
-                    logger.severe("[" + replicaId + "] Server error (500 Internal Server Error)");
-                } else if (statusLine.contains("201")) {
-                    logger.info("[" + replicaId + "] Server accepted PUT (201 Created)");
-                    success = true;
-                } else if (statusLine.contains("200")) {
-                    logger.info("[" + replicaId + "] Server accepted PUT (200 OK)");
-                    success = true;
-                } else if (statusLine.contains("204")) {
-                    logger.info("[" + replicaId + "] No Content (204) – empty payload sent");
-                    success = true;
-                } else {
-                    logger.warning("[" + replicaId + "] Unexpected response: " + statusLine);
+                success = checkStatus(statusLine);
+                commitStage(send, FlightEvents.STAGE_SEND, update);
+                if (update.heartbeat && !success) {
+                    return false;   // lease lost or rejected: retrying the heartbeat cannot help
+                }
+                if (!success && attempt + 1 < MAX_RETRIES) {
+                    recordRetry(update, attempt + 1, 0, statusLine);
                 }
 
             } catch (IOException e) {
                 logger.warning("[" + replicaId + "] PUT failed (attempt " + (attempt + 1) + "): " + e.getMessage());
+                if (attempt + 1 < MAX_RETRIES) {
+                    recordRetry(update, attempt + 1, RETRY_DELAY_MS, e.getMessage());
+                }
                 try {
                     Thread.sleep(RETRY_DELAY_MS);
                 } catch (InterruptedException ie) {
@@ -172,16 +379,98 @@ public class ContentServer implements Runnable {
 
         if (!success) {
             logger.severe("[" + replicaId + "] PUT request failed after " + MAX_RETRIES + " attempts.");
+        } else {
+            delivered(update);
+        }
+        return success;
+    }
+
+    /** Commits a client-side request stage for an update. */
+    void commitStage(FlightEvents.RequestStage event, String stage, Update update) {
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.method = update.heartbeat ? "HEARTBEAT" : "PUT";
+            event.station = update.station;
+            event.replicaId = replicaId;
+            event.lamport = update.lamport;
+            event.bytes = update.payload.length;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records that an update failed and will be sent again.
+     *
+     * @param attempt   number of the attempt that failed (1-based)
+     * @param backoffMs delay before the next attempt
+     * @param reason    status line or error message of the failure
+     */
+    void recordRetry(Update update, int attempt, long backoffMs, String reason) {
+        FlightEvents.Retry event = new FlightEvents.Retry();
+        if (event.shouldCommit()) {
+            event.replicaId = replicaId;
+            event.station = update.station;
+            event.lamport = update.lamport;
+            event.attempt = attempt;
+            event.backoff = backoffMs;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    /**
+     * An encoded update: payload plus the Lamport value and station it was stamped with.
+     * A heartbeat has an empty payload and only renews the replica's lease.
+     */
+    static final class Update {
+        final int lamport;
+        final String station;
+        final byte[] payload;
+        final String contentType;
+        final boolean heartbeat;
+        final Map<String, String> record;   // unstamped source record, null if unknown (e.g. from outbox)
+
+        Update(int lamport, String station, byte[] payload, String contentType) {
+            this(lamport, station, payload, contentType, null);
+        }
+
+        Update(int lamport, String station, byte[] payload, String contentType, Map<String, String> record) {
+            this.lamport = lamport;
+            this.station = station;
+            this.payload = payload;
+            this.contentType = contentType;
+            this.heartbeat = false;
+            this.record = record;
+        }
+
+        private Update(int lamport, String station) {
+            this.lamport = lamport;
+            this.station = station;
+            this.payload = new byte[0];
+            this.contentType = null;
+            this.heartbeat = true;
+            this.record = null;
+        }
+
+        static Update heartbeat(int lamport, String station) {
+            return new Update(lamport, station);
         }
     }
 
     /**
      * Program entry point.
-     * Usage: java ContentServer <host:port> <filename> [replicaId]
+     * Usage: java ContentServer <host:port> <filename> [replicaId] [--binary] [--no-coalesce]
      */
     public static void main(String[] args) {
+        boolean binary = Arrays.asList(args).contains("--binary");
+        boolean coalesce = !Arrays.asList(args).contains("--no-coalesce");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
         if (args.length < 2) {
-            System.err.println("Usage: java ContentServer <host:port> <filename> [replicaId]");
+            System.err.println("Usage: java ContentServer <host:port> <filename> [replicaId] [--binary] [--no-coalesce]");
             return;
         }
 
@@ -192,7 +481,7 @@ public class ContentServer implements Runnable {
         String filename = args[1];
         String replicaId = (args.length > 2) ? args[2] : "replica1";
 
-        ContentServer server = new ContentServer(serverHost, serverPort, filename, replicaId);
+        ContentServer server = new ContentServer(serverHost, serverPort, filename, replicaId, binary, coalesce);
         Thread serverThread = new Thread(server);
         serverThread.start();
 
@@ -0,0 +1,275 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ContentServerAgent runs many feeds (ContentServer replicas) in one JVM.
+ * .
+ * Features:
+ * - Feed definitions loaded from a config file
+ * - All feeds scheduled on one shared ScheduledExecutorService; start times are
+ *   spread over the interval so feeds do not fire in lockstep
+ * - Non-blocking retries: a failed PUT is rescheduled with exponential backoff
+ *   and jitter instead of sleeping in a thread; a retry is dropped once a newer
+ *   update from the same feed supersedes it
+ * - Keep-alive connections to the aggregator shared by all feeds
+ * - Updates that exhaust their retries go to the feed's durable outbox and are
+ *   replayed in pipelined batches on the feed's next cycle
+ * - While the aggregator is unreachable, feeds neither replay nor send: new updates
+ *   go straight to the outbox and the pool probes once per backoff period
+ * .
+ * Config format (one feed per line, '#' starts a comment):
+ *   replicaId  filename  [intervalMs]  [binary]
+ */
+public class ContentServerAgent {
+
+    private static final Logger logger = Logger.getLogger(ContentServerAgent.class.getName());
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final List<Feed> feeds;
+    private final ScheduledExecutorService scheduler;
+    private final AggregatorConnectionPool connections;
+    private final boolean coalesce;   // superseded retries may be dropped (only the latest per station counts)
+
+    /**
+     * @param serverHost AggregationServer host
+     * @param serverPort AggregationServer port
+     * @param feeds      feed definitions (see loadFeeds)
+     * @param threads    scheduler threads (also the number of pooled connections)
+     * @param coalesce   replay only the latest outbox update per station
+     */
+    public ContentServerAgent(String serverHost, int serverPort, List<FeedConfig> feeds, int threads,
+                              boolean coalesce) {
+        this.coalesce = coalesce;
+        this.feeds = new ArrayList<>(feeds.size());
+        for (FeedConfig config : feeds) {
+            ContentServer server = new ContentServer(serverHost, serverPort,
+                    config.filename, config.replicaId, config.binary, coalesce);
+            this.feeds.add(new Feed(server, config.intervalMs));
+        }
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "feed-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connections = new AggregatorConnectionPool(serverHost, serverPort, threads);
+    }
+
+    /** Schedules every feed; returns immediately. */
+    public void start() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Feed feed : feeds) {
+            long initialDelay = random.nextLong(feed.intervalMs);
+            scheduler.scheduleAtFixedRate(() -> publish(feed), initialDelay, feed.intervalMs, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Agent started " + feeds.size() + " feed(s)");
+    }
+
+    /** Stops all feeds and closes pooled connections. */
+    public void stop() {
+        scheduler.shutdownNow();
+        connections.close();
+    }
+
+    /** One update cycle of a feed: read, stamp, encode, send (or replay the outbox first). */
+    private void publish(Feed feed) {
+        try {
+            ContentServer.Update update = feed.server.prepareUpdate();
+            boolean reachable = connections.isReachable();
+            if (feed.server.hasBacklog() || (update != null && !reachable)) {
+                if (update != null) feed.server.enqueue(update);
+                if (reachable) feed.server.replayOutbox(connections);
+                return;
+            }
+            if (update == null) return;
+            feed.latestLamport = update.lamport;
+            attempt(feed, update, 0);
+        } catch (Exception e) {
+            // never let an exception cancel the periodic task
+            logger.warning("[" + feed.server.getReplicaId() + "] Update failed: " + e.getMessage());
+        }
+    }
+
+    /** Sends an update; on failure schedules the next attempt instead of blocking. */
+    private void attempt(Feed feed, ContentServer.Update update, int attempt) {
+        if (update.lamport != feed.latestLamport) {
+            // superseded by a newer update from this feed: without coalescing every
+            // update must still arrive, so it goes to the outbox instead of being dropped
+            if (!coalesce && !update.heartbeat) feed.server.enqueue(update);
+            return;
+        }
+
+        boolean success;
+        boolean answered = false;
+        String failure;
+        FlightEvents.RequestStage send = new FlightEvents.RequestStage();
+        send.begin();
+        try {
+            String statusLine = connections.send(feed.server.requestHead(update, true), update.payload);
+            answered = statusLine != null;
+            success = feed.server.checkStatus(statusLine);
+            feed.server.commitStage(send, FlightEvents.STAGE_SEND, update);
+            failure = statusLine;
+        } catch (IOException e) {
+            logger.warning("[" + feed.server.getReplicaId() + "] PUT failed (attempt " + (attempt + 1) + "): " + e.getMessage());
+            success = false;
+            failure = e.getMessage();
+        }
+
+        if (success) {
+            feed.server.delivered(update);
+            return;
+        }
+        if (update.heartbeat && answered) {
+            feed.server.enqueue(update);   // lease lost: resend the full record next cycle
+            return;
+        }
+        if (attempt + 1 >= ContentServer.MAX_RETRIES) {
+            logger.severe("[" + feed.server.getReplicaId() + "] PUT request failed after "
+                    + ContentServer.MAX_RETRIES + " attempts.");
+            feed.server.enqueue(update);
+            return;
+        }
+        long delay = backoff(attempt);
+        feed.server.recordRetry(update, attempt + 1, delay, failure);
+        try {
+            scheduler.schedule(() -> attempt(feed, update, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // agent is shutting down
+        }
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half the capped delay is fixed,
+     * the other half random, so retries from many feeds do not synchronize.
+     */
+    static long backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    /**
+     * Loads feed definitions from a config file.
+     * Relative filenames are resolved against the config file's directory.
+     *
+     * @param configFile feed config file
+     * @return parsed feed definitions
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static List<FeedConfig> loadFeeds(File configFile) throws IOException {
+        List<FeedConfig> feeds = new ArrayList<>();
+        File baseDir = configFile.getAbsoluteFile().getParentFile();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                String[] parts = line.split("\\s+");
+                if (parts.length < 2) {
+                    throw new IOException("Invalid feed at line " + lineNumber + ": expected <replicaId> <filename>");
+                }
+                File file = new File(parts[1]);
+                if (!file.isAbsolute()) file = new File(baseDir, parts[1]);
+
+                long interval = ContentServer.UPDATE_INTERVAL_MS;
+                boolean binary = false;
+                for (int i = 2; i < parts.length; i++) {
+                    if (parts[i].equalsIgnoreCase("binary")) {
+                        binary = true;
+                    } else {
+                        try {
+                            interval = Long.parseLong(parts[i]);
+                        } catch (NumberFormatException e) {
+                            interval = -1;
+                        }
+                        if (interval <= 0) {
+                            throw new IOException("Invalid interval at line " + lineNumber + ": " + parts[i]);
+                        }
+                    }
+                }
+                feeds.add(new FeedConfig(parts[0], file.getPath(), interval, binary));
+            }
+        }
+        return feeds;
+    }
+
+    /** A feed definition from the config file. */
+    public static final class FeedConfig {
+        final String replicaId;
+        final String filename;
+        final long intervalMs;
+        final boolean binary;
+
+        public FeedConfig(String replicaId, String filename, long intervalMs, boolean binary) {
+            this.replicaId = replicaId;
+            this.filename = filename;
+            this.intervalMs = intervalMs;
+            this.binary = binary;
+        }
+    }
+
+    /** Runtime state of one feed. */
+    private static final class Feed {
+        private final ContentServer server;
+        private final long intervalMs;
+        private volatile int latestLamport;
+
+        Feed(ContentServer server, long intervalMs) {
+            this.server = server;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    /**
+     * Program entry point.
+     * Usage: java ContentServerAgent <host:port> <feeds.conf> [threads] [--verbose] [--no-coalesce]
+     */
+    public static void main(String[] args) {
+        boolean verbose = Arrays.asList(args).contains("--verbose");
+        boolean coalesce = !Arrays.asList(args).contains("--no-coalesce");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        if (args.length < 2) {
+            System.err.println("Usage: java ContentServerAgent <host:port> <feeds.conf> [threads] [--verbose] [--no-coalesce]");
+            return;
+        }
+
+        String[] hostPort = args[0].split(":");
+        String serverHost = hostPort[0];
+        int serverPort = Integer.parseInt(hostPort[1]);
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        if (!verbose) {
+            // per-update INFO logs from thousands of feeds would dominate the process
+            Logger.getLogger(ContentServer.class.getName()).setLevel(Level.WARNING);
+        }
+
+        try {
+            List<FeedConfig> feeds = loadFeeds(new File(args[1]));
+            ContentServerAgent agent = new ContentServerAgent(serverHost, serverPort, feeds, threads, coalesce);
+            agent.start();
+
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                agent.stop();
+                System.out.println("Content server agent stopped.");
+                stopped.countDown();
+            }));
+            stopped.await();
+        } catch (IOException e) {
+            logger.severe("Failed to load feeds: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package au.edu.adelaide.ds.assignment2;
+
+import jdk.jfr.*;
+
+/**
+ * FlightEvents holds the custom Java Flight Recorder events of the servers.
+ * - RequestStage: one stage of a request (read, decode, store, encode, write on the
+ *   AggregationServer; prepare and send on a ContentServer)
+ * - LockWait: time spent waiting for the weatherData monitor
+ * - Persistence: a write or read of weather_data.json, an archive segment or an outbox
+ * - CleanupPass: one run of the expiry sweep
+ * - Retry: a failed PUT that will be attempted again
+ * .
+ * Usage follows the JFR pattern: create, begin(), do the work, then fill the fields
+ * and commit() only if shouldCommit(). With recording off, shouldCommit() is false,
+ * no field is computed and the JIT removes the event allocation.
+ * Record with the settings in src/main/resources/weather.jfc and summarize with FlightReport.
+ */
+public final class FlightEvents {
+
+    public static final String STAGE_READ = "read";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_STORE = "store";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_WRITE = "write";
+    public static final String STAGE_PREPARE = "prepare";
+    public static final String STAGE_SEND = "send";
+
+    private FlightEvents() {}
+
+    @Name("weather.RequestStage")
+    @Label("Request Stage")
+    @Category({"Weather", "Requests"})
+    @Description("One stage of handling or sending a request")
+    @StackTrace(false)
+    public static final class RequestStage extends Event {
+        @Label("Stage")
+        public String stage;
+
+        @Label("Method")
+        public String method;
+
+        @Label("Station")
+        public String station;
+
+        @Label("Replica ID")
+        public String replicaId;
+
+        @Label("Lamport Timestamp")
+        public int lamport;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("weather.LockWait")
+    @Label("Store Lock Wait")
+    @Category({"Weather", "Locks"})
+    @Description("Time spent waiting to enter the weatherData monitor")
+    @StackTrace(false)
+    public static final class LockWait extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Station")
+        public String station;
+    }
+
+    @Name("weather.Persistence")
+    @Label("Persistence")
+    @Category({"Weather", "Persistence"})
+    @Description("A write or read of the data file, an archive segment or an outbox")
+    @StackTrace(false)
+    public static final class Persistence extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("File")
+        public String file;
+
+        @Label("Records")
+        public int records;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("weather.CleanupPass")
+    @Label("Cleanup Pass")
+    @Category({"Weather", "Persistence"})
+    @Description("One run of the expiry sweep, including the data file save and archive append")
+    @StackTrace(false)
+    public static final class CleanupPass extends Event {
+        @Label("Expired Records")
+        public int expired;
+
+        @Label("Stored Records")
+        public int remaining;
+    }
+
+    @Name("weather.Retry")
+    @Label("PUT Retry")
+    @Category({"Weather", "Requests"})
+    @Description("A failed PUT that will be attempted again")
+    @StackTrace(false)
+    public static final class Retry extends Event {
+        @Label("Replica ID")
+        public String replicaId;
+
+        @Label("Station")
+        public String station;
+
+        @Label("Lamport Timestamp")
+        public int lamport;
+
+        @Label("Attempt")
+        public int attempt;
+
+        @Label("Backoff")
+        @Timespan(Timespan.MILLISECONDS)
+        public long backoff;
+
+        @Label("Reason")
+        public String reason;
+    }
+
+    /**
+     * Commits a lock wait that was begun right before entering the monitor and
+     * ended right after.
+     */
+    static void commitLockWait(LockWait event, String operation, String station) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.station = station;
+            event.commit();
+        }
+    }
+
+    /** Commits a request stage that carries no record context. */
+    static void commitStage(RequestStage event, String stage, String method, long bytes) {
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.method = method;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * FlightReport summarizes a JFR recording of the weather servers offline.
+ * - Request stages per method and stage: count, total, mean, p50, p99 and max
+ *   duration, plus bytes, so a latency spike can be attributed to parsing,
+ *   decoding, the store lock, encoding or socket writes
+ * - Store lock waits per operation
+ * - Persistence operations per type (data file, archive, outbox)
+ * - Cleanup passes and PUT retries per replica
+ * .
+ * Usage: java FlightReport <recording.jfr>
+ * The recording is streamed event by event, so large files are not loaded at once.
+ */
+public class FlightReport {
+
+    private static final Logger logger = Logger.getLogger(FlightReport.class.getName());
+
+    private final Map<String, Stats> stages = new TreeMap<>();
+    private final Map<String, Stats> lockWaits = new TreeMap<>();
+    private final Map<String, Stats> persistence = new TreeMap<>();
+    private final Stats cleanups = new Stats();
+    private final Map<String, Integer> retries = new TreeMap<>();
+    private long expired;
+    private long otherEvents;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            logger.severe("Usage: java FlightReport <recording.jfr>");
+            return;
+        }
+        FlightReport report = new FlightReport();
+        try {
+            report.read(Paths.get(args[0]));
+        } catch (IOException e) {
+            logger.severe("Failed to read recording " + args[0] + ": " + e.getMessage());
+            return;
+        }
+        report.print();
+    }
+
+    /**
+     * Reads all events of a recording.
+     *
+     * @param recording path of the .jfr file
+     * @throws IOException if the file is missing or not a recording
+     */
+    public void read(Path recording) throws IOException {
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                add(file.readEvent());
+            }
+        }
+    }
+
+    private void add(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        switch (event.getEventType().getName()) {
+            case "weather.RequestStage": {
+                String method = event.getString("method");
+                String key = (method != null ? method : "*") + " " + event.getString("stage");
+                stages.computeIfAbsent(key, k -> new Stats()).add(nanos, event.getLong("bytes"));
+                break;
+            }
+            case "weather.LockWait":
+                lockWaits.computeIfAbsent(event.getString("operation"), k -> new Stats()).add(nanos, 0);
+                break;
+            case "weather.Persistence":
+                persistence.computeIfAbsent(event.getString("operation"), k -> new Stats())
+                        .add(nanos, event.getLong("bytes"), event.getInt("records"));
+                break;
+            case "weather.CleanupPass":
+                cleanups.add(nanos, 0);
+                expired += event.getInt("expired");
+                break;
+            case "weather.Retry":
+                retries.merge(String.valueOf(event.getString("replicaId")), 1, Integer::sum);
+                break;
+            default:
+                otherEvents++;
+        }
+    }
+
+    /** Prints the per-stage breakdown to stdout. */
+    public void print() {
+        System.out.println("Request stages (method stage)");
+        printTable(stages);
+
+        System.out.println();
+        System.out.println("Store lock waits (operation)");
+        printTable(lockWaits);
+
+        System.out.println();
+        System.out.println("Persistence (operation)");
+        printTable(persistence);
+        for (Map.Entry<String, Stats> entry : persistence.entrySet()) {
+            System.out.printf("  %-22s %d record(s) written or read%n", entry.getKey(), entry.getValue().records);
+        }
+
+        System.out.println();
+        System.out.println("Cleanup passes: " + cleanups.count() + ", expired records: " + expired);
+        if (cleanups.count() > 0) {
+            System.out.printf("  mean %s, p99 %s, max %s%n",
+                    ms(cleanups.mean()), ms(cleanups.percentile(0.99)), ms(cleanups.max()));
+        }
+
+        System.out.println();
+        System.out.println("PUT retries: " + retries.values().stream().mapToInt(Integer::intValue).sum());
+        for (Map.Entry<String, Integer> entry : retries.entrySet()) {
+            System.out.printf("  %-22s %d%n", entry.getKey(), entry.getValue());
+        }
+
+        System.out.println();
+        System.out.println("Other (JDK) events: " + otherEvents);
+    }
+
+    private static void printTable(Map<String, Stats> rows) {
+        if (rows.isEmpty()) {
+            System.out.println("  (none)");
+            return;
+        }
+        System.out.printf("  %-22s %8s %11s %10s %10s %10s %10s %12s%n",
+                "", "count", "total", "mean", "p50", "p99", "max", "bytes");
+        for (Map.Entry<String, Stats> entry : rows.entrySet()) {
+            Stats s = entry.getValue();
+            System.out.printf("  %-22s %8d %11s %10s %10s %10s %10s %12d%n",
+                    entry.getKey(), s.count(), ms(s.total), ms(s.mean()),
+                    ms(s.percentile(0.50)), ms(s.percentile(0.99)), ms(s.max()), s.bytes);
+        }
+    }
+
+    private static String ms(double nanos) {
+        return String.format("%.3f ms", nanos / 1_000_000.0);
+    }
+
+    /** Durations (ns) and byte/record totals of one group of events. */
+    private static final class Stats {
+        private long[] durations = new long[64];
+        private int count;
+        private boolean sorted;
+        private long total;
+        private long bytes;
+        private long records;
+
+        void add(long nanos, long bytes) {
+            add(nanos, bytes, 0);
+        }
+
+        void add(long nanos, long bytes, int records) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = nanos;
+            sorted = false;
+            total += nanos;
+            this.bytes += bytes;
+            this.records += records;
+        }
+
+        int count() {
+            return count;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        long max() {
+            return percentile(1.0);
+        }
+
+        /** Nearest-rank percentile. */
+        long percentile(double p) {
+            if (count == 0) return 0;
+            if (!sorted) {
+                Arrays.sort(durations, 0, count);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(p * count);
+            return durations[Math.max(0, Math.min(count, rank) - 1)];
+        }
+    }
+}
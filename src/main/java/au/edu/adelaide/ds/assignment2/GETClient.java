@@ -2,82 +2,275 @@ package au.edu.adelaide.ds.assignment2;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
 /**
- * GETClient connects to the AggregationServer and performs a GET request.
- * - Sends a strict HTTP GET request to /weather.json
- * - Parses the JSON response containing a list of weather records
- * - Displays the records in a human-readable format
+ * GETClient connects to the AggregationServer and performs GET requests.
+ * - Sends a strict HTTP GET request to /weather.json over a persistent keep-alive connection
+ * - Decodes the response while it is read (streaming JSON, or the binary format with --binary)
+ * - Keeps a station-keyed mirror of the records and reports only the differences per poll
+ * - Displays the records in a human-readable format, once or continuously with --watch
+ * .
+ * Embedding: create a GETClient, then call poll() or startWatching(intervalMs, listener)
+ * and read the mirror via getMirror(). The server has no push channel, so watching
+ * is interval polling; unchanged polls produce no listener call.
  */
-public class GETClient {
+public class GETClient implements Closeable {
 
     private static final Logger logger = Logger.getLogger(GETClient.class.getName());
     private static final Gson gson = new Gson();
     private static final int DEFAULT_PORT = 4567;
+    static final long DEFAULT_WATCH_INTERVAL_MS = 2000;
+
+    private final String serverHost;
+    private final int serverPort;
+    private final boolean binary;
+    private final WeatherMirror mirror = new WeatherMirror();
+
+    private volatile Socket socket;   // persistent connection, null when disconnected
+    private OutputStream out;         // guarded by this
+    private InputStream in;           // guarded by this
+    private volatile boolean closed;
+    private volatile Thread watchThread;
+
+    /** Receives the differences of every poll that changed the mirror. */
+    public interface Listener {
+        void onChange(WeatherMirror.Diff diff);
+    }
+
+    /**
+     * @param serverHost AggregationServer host
+     * @param serverPort AggregationServer port
+     * @param binary     request the binary encoding instead of JSON
+     */
+    public GETClient(String serverHost, int serverPort, boolean binary) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.binary = binary;
+    }
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            logger.severe("Usage: java GETClient <host:port>");
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        boolean binary = argList.remove("--binary");
+        boolean watch = argList.remove("--watch");
+        long interval = DEFAULT_WATCH_INTERVAL_MS;
+        for (Iterator<String> it = argList.iterator(); it.hasNext(); ) {
+            String arg = it.next();
+            if (arg.startsWith("--interval=")) {
+                interval = Long.parseLong(arg.substring("--interval=".length()));
+                it.remove();
+            }
+        }
+        if (argList.isEmpty()) {
+            logger.severe("Usage: java GETClient <host:port> [--binary] [--watch] [--interval=<ms>]");
             return;
         }
 
-        String[] hostPort = args[0].replace("http://", "").split(":");
+        String[] hostPort = argList.get(0).replace("http://", "").split(":");
         String serverHost = hostPort[0];
         int serverPort = (hostPort.length > 1) ? Integer.parseInt(hostPort[1]) : DEFAULT_PORT;
 
-        try (Socket socket = new Socket(serverHost, serverPort);
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (GETClient client = new GETClient(serverHost, serverPort, binary)) {
+            if (watch) {
+                logger.info("Watching " + serverHost + ":" + serverPort + " every " + interval + " ms");
+                client.watch(interval, GETClient::displayDiff);
+            } else {
+                client.poll();
+                display(new ArrayList<>(client.getMirror().snapshot().values()));
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "GETClient error", e);
+        }
+    }
 
-            logger.info("Connected to Aggregation Server at " + serverHost + ":" + serverPort);
+    /** Returns the mirror of the server's records as of the last successful poll. */
+    public WeatherMirror getMirror() {
+        return mirror;
+    }
 
-            sendGetRequest(out, serverHost, serverPort);
-            handleResponse(in);
+    /**
+     * Fetches the current records and applies them to the mirror.
+     * A stale keep-alive connection is replaced and the request retried once.
+     *
+     * @return differences to the previous poll
+     * @throws IOException if the server cannot be reached or returns an error
+     */
+    public synchronized WeatherMirror.Diff poll() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            if (closed) throw new IOException("GETClient is closed");
+            boolean reused = socket != null;
+            connect();
+            try {
+                return exchange();
+            } catch (IOException e) {
+                disconnect();
+                if (!reused || attempt > 0) throw e;
+                logger.fine("Keep-alive connection was stale, reconnecting: " + e.getMessage());
+            }
+        }
+    }
 
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "GETClient error", e);
+    /**
+     * Polls until close() is called or the thread is interrupted, reporting changes
+     * to the listener. Poll failures are logged and retried on the next interval.
+     *
+     * @param intervalMs delay between polls
+     * @param listener   receives non-empty differences
+     */
+    public void watch(long intervalMs, Listener listener) {
+        while (!closed) {
+            try {
+                WeatherMirror.Diff diff = poll();
+                if (!diff.isEmpty()) {
+                    listener.onChange(diff);
+                }
+            } catch (IOException e) {
+                if (!closed) logger.warning("Poll failed: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
 
     /**
-     * Sends an HTTP GET request for /weather.json.
+     * Starts watch() on a background daemon thread.
+     *
+     * @param intervalMs delay between polls
+     * @param listener   receives non-empty differences (on the watch thread)
      */
-    private static void sendGetRequest(PrintWriter out, String host, int port) {
-        out.println("GET /weather.json HTTP/1.1");
-        out.println("Host: " + host + ":" + port);
-        out.println("User-Agent: GETClient/1.0");
-        out.println(); // End headers
-        out.flush();
+    public synchronized void startWatching(long intervalMs, Listener listener) {
+        if (watchThread != null) {
+            throw new IllegalStateException("Already watching");
+        }
+        Thread thread = new Thread(() -> watch(intervalMs, listener), "GETClient-watch");
+        thread.setDaemon(true);
+        watchThread = thread;
+        thread.start();
+    }
+
+    /** Stops watching and closes the connection. */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = watchThread;
+        if (thread != null) thread.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();   // unblocks a poll waiting for the server
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // --- Connection handling ---
+
+    private void connect() throws IOException {
+        if (socket != null) return;
+        Socket s = new Socket(serverHost, serverPort);
+        out = new BufferedOutputStream(s.getOutputStream());
+        in = new BufferedInputStream(s.getInputStream());
+        socket = s;
+        logger.info("Connected to Aggregation Server at " + serverHost + ":" + serverPort);
+    }
+
+    private void disconnect() {
+        Socket s = socket;
+        socket = null;
+        out = null;
+        in = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
     /**
-     * Reads and processes the server response.
+     * Sends one GET and streams the response body into a new mirror sync.
      */
-    private static void handleResponse(BufferedReader in) throws IOException {
-        String statusLine = in.readLine();
+    private WeatherMirror.Diff exchange() throws IOException {
+        sendGetRequest();
+
+        String statusLine = readLine(in);
         if (statusLine == null) {
-            logger.warning("Server closed connection unexpectedly.");
-            return;
+            throw new EOFException("Server closed connection unexpectedly");
         }
-
         int statusCode = parseStatusCode(statusLine);
+        Map<String, String> headers = readHeaders(in);
+
+        String contentLength = headers.get("Content-Length");
+        boolean reusable = contentLength != null && !"close".equalsIgnoreCase(headers.get("Connection"));
+        InputStream body = contentLength != null
+                ? new BoundedInputStream(in, Long.parseLong(contentLength))
+                : in;   // no length: body ends when the server closes
+
+        WeatherMirror.Sync sync = mirror.begin();
         switch (statusCode) {
             case 200:
-                skipHeaders(in);
-                String jsonResponse = readBody(in);
-                parseAndDisplay(jsonResponse);
+                if (BinaryCodec.isBinary(headers.get("Content-Type"))) {
+                    // compact enough to decode from one array; records still stream into the mirror
+                    for (WeatherRecord record : BinaryCodec.decodeRecords(body.readAllBytes())) {
+                        sync.accept(record);
+                    }
+                } else {
+                    decodeJson(body, sync);
+                }
                 break;
             case 204:
-                System.out.println("No weather records available.");
-                break;
+                break;   // no records: everything mirrored so far was removed
             default:
-                logger.warning("Server returned error: " + statusLine);
+                throw new IOException("Server returned error: " + statusLine);   // poll() drops the connection
+        }
+
+        if (reusable) {
+            ((BoundedInputStream) body).drain();   // keep the connection at the next response
+        } else {
+            disconnect();
+        }
+        return sync.commit();
+    }
+
+    /**
+     * Sends an HTTP GET request for /weather.json on the persistent connection.
+     * Asks for the binary encoding via Accept when requested.
+     */
+    private void sendGetRequest() throws IOException {
+        String request =
+                "GET /weather.json HTTP/1.1\r\n" +
+                        "Host: " + serverHost + ":" + serverPort + "\r\n" +
+                        "User-Agent: GETClient/1.0\r\n" +
+                        "Accept: " + (binary ? BinaryCodec.CONTENT_TYPE : BinaryCodec.JSON_CONTENT_TYPE) + "\r\n" +
+                        "Connection: keep-alive\r\n" +
+                        "\r\n";
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Decodes a JSON array of records element by element, without buffering the body.
+     */
+    private static void decodeJson(InputStream body, WeatherMirror.Sync sync) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                sync.accept(gson.fromJson(reader, WeatherRecord.class));
+            }
+            reader.endArray();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed JSON response: " + e.getMessage(), e);
         }
     }
 
@@ -94,37 +287,37 @@ public class GETClient {
     }
 
     /**
-     * Skips HTTP headers until empty line.
+     * Reads one header line as ASCII bytes (CRLF or LF terminated).
      */
-    private static void skipHeaders(BufferedReader in) throws IOException {
-        String line;
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            // Skip headers
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (b != '\r') line.append((char) b);
         }
+        return (b == -1 && line.length() == 0) ? null : line.toString();
     }
 
     /**
-     * Reads full JSON body from server response.
+     * Reads HTTP headers until empty line (names are case-insensitive).
      */
-    private static String readBody(BufferedReader in) throws IOException {
-        StringBuilder jsonBuilder = new StringBuilder();
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         String line;
-        while ((line = in.readLine()) != null) {
-            jsonBuilder.append(line);
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            String[] parts = line.split(":", 2);
+            if (parts.length == 2) {
+                headers.put(parts[0].trim(), parts[1].trim());
+            }
         }
-        return jsonBuilder.toString().trim();
+        return headers;
     }
 
     /**
-     * Parses JSON into WeatherRecord objects and displays them.
+     * Displays decoded records.
      */
-    private static void parseAndDisplay(String jsonResponse) {
-        logger.info("Received JSON: " + jsonResponse);
-
-        List<WeatherRecord> records = gson.fromJson(
-                jsonResponse, new TypeToken<List<WeatherRecord>>() {}.getType()
-        );
-
+    private static void display(List<WeatherRecord> records) {
         if (records == null || records.isEmpty()) {
             System.out.println("No weather records available.");
             return;
@@ -132,10 +325,72 @@ public class GETClient {
 
         System.out.println("Weather Records:");
         for (WeatherRecord r : records) {
-            System.out.printf(
-                    "Station: %s | Temp: %s | Humidity: %s | Lamport: %d%n",
-                    r.getStation(), r.getTemperature(), r.getHumidity(), r.getLamportTimestamp()
-            );
+            printRecord("", r);
+        }
+    }
+
+    /**
+     * Displays the changes of one poll: + added, ~ updated, - removed.
+     */
+    private static void displayDiff(WeatherMirror.Diff diff) {
+        for (WeatherRecord r : diff.getAdded()) printRecord("+ ", r);
+        for (WeatherRecord r : diff.getUpdated()) printRecord("~ ", r);
+        for (WeatherRecord r : diff.getRemoved()) printRecord("- ", r);
+    }
+
+    private static void printRecord(String prefix, WeatherRecord r) {
+        System.out.printf(
+                "%sStation: %s | Temp: %s | Humidity: %s | Lamport: %d%n",
+                prefix, r.getStation(), r.getTemperature(), r.getHumidity(), r.getLamportTimestamp()
+        );
+    }
+
+    /**
+     * Exposes exactly one response body of a keep-alive connection; closing it
+     * does not close the socket.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b < 0) throw new EOFException("Connection closed mid-body");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) throw new EOFException("Connection closed mid-body");
+            remaining -= n;
+            return n;
+        }
+
+        /** Skips the unread rest of the body. */
+        void drain() throws IOException {
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() < 0) throw new EOFException("Connection closed mid-body");
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        }
+
+        @Override
+        public void close() {
+            // the connection stays open for the next request
         }
     }
 }
@@ -0,0 +1,27 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.IOException;
+
+/**
+ * Thrown by HttpRequestParser for malformed requests.
+ * Carries the HTTP status line the server should answer with.
+ */
+public class HttpParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    /**
+     * @param status  HTTP status, e.g. "400 Bad Request"
+     * @param message description of what was malformed
+     */
+    public HttpParseException(String status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
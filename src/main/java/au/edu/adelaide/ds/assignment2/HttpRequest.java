@@ -0,0 +1,100 @@
+package au.edu.adelaide.ds.assignment2;
+
+/**
+ * HttpRequest holds the parts of a request the AggregationServer needs.
+ * One instance is reused per connection; HttpRequestParser resets and fills it.
+ * - Only Content-Length, Lamport-Clock, Replica-Id, Connection, Content-Type
+ *   and Accept are recognized; other headers are skipped without being materialized
+ * - The body refers to the connection buffer and is only valid until the
+ *   next request is read
+ */
+public final class HttpRequest {
+
+    /** Supported request methods. */
+    public enum Method { GET, PUT, OTHER }
+
+    /** Known request targets. */
+    public enum Route { WEATHER, AGGREGATES, ARCHIVE, HEARTBEAT }
+
+    Method method;
+    Route route;
+    String query;               // only materialized for /archive
+    int contentLength;
+    boolean hasLamportClock;
+    int lamportClock;
+    String replicaId;           // Replica-Id header, null if absent
+    boolean keepAlive;
+    boolean binaryBody;         // Content-Type selects BinaryCodec
+    boolean binaryAccept;       // Accept selects BinaryCodec
+
+    byte[] body;
+    int bodyOffset;
+
+    /** Clears all fields before parsing the next request. */
+    void reset() {
+        method = Method.OTHER;
+        route = Route.WEATHER;
+        query = null;
+        contentLength = 0;
+        hasLamportClock = false;
+        lamportClock = 0;
+        replicaId = null;
+        keepAlive = false;
+        binaryBody = false;
+        binaryAccept = false;
+        body = null;
+        bodyOffset = 0;
+    }
+
+    // --- Getters ---
+    public Method getMethod() {
+        return method;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    /** Returns the raw query string (without '?'), or null if absent. */
+    public String getQuery() {
+        return query;
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    public boolean hasLamportClock() {
+        return hasLamportClock;
+    }
+
+    public int getLamportClock() {
+        return lamportClock;
+    }
+
+    /** Returns the Replica-Id header, or null if absent. */
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public boolean isBinaryBody() {
+        return binaryBody;
+    }
+
+    public boolean isBinaryAccept() {
+        return binaryAccept;
+    }
+
+    /** Returns the array holding the body; see getBodyOffset() and getContentLength(). */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+}
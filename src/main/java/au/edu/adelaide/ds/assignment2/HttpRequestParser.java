@@ -0,0 +1,291 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HttpRequestParser is a byte-oriented HTTP/1.1 request parser working directly
+ * on a connection's pooled ByteBuffer.
+ * .
+ * Features:
+ * - No readers, no per-header Strings or maps: header names are matched
+ *   case-insensitively against byte constants and values parsed in place
+ *   (only Replica-Id is materialized, as it is used as a lookup key)
+ * - Only the headers the server needs are recognized (see HttpRequest)
+ * - Content-Length is a byte count, so binary and multi-byte UTF-8 bodies are exact
+ * - Malformed input raises HttpParseException with the status to answer with:
+ *   400 (bad syntax), 413 (body too large), 431 (header block too large)
+ * .
+ * Buffers are kept in read mode between calls: position = first unconsumed byte,
+ * limit = end of data received so far. Bytes after a request stay in the buffer
+ * for the next (pipelined) request.
+ */
+public final class HttpRequestParser {
+
+    public static final int MAX_BODY_BYTES = 1 << 20;   // 1 MiB
+
+    private static final byte[] GET = bytes("GET");
+    private static final byte[] PUT = bytes("PUT");
+    private static final byte[] HTTP_1 = bytes("HTTP/1.");
+    private static final byte[] PATH_AGGREGATES = bytes("/aggregates");
+    private static final byte[] PATH_ARCHIVE = bytes("/archive");
+    private static final byte[] PATH_HEARTBEAT = bytes("/heartbeat");
+
+    private static final byte[] CONTENT_LENGTH = bytes("content-length");
+    private static final byte[] LAMPORT_CLOCK = bytes("lamport-clock");
+    private static final byte[] REPLICA_ID = bytes("replica-id");
+    private static final byte[] CONNECTION = bytes("connection");
+    private static final byte[] CONTENT_TYPE = bytes("content-type");
+    private static final byte[] ACCEPT = bytes("accept");
+    private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+    private static final byte[] BINARY_MEDIA_TYPE = bytes(BinaryCodec.CONTENT_TYPE.toLowerCase());
+
+    private HttpRequestParser() {}
+
+    /**
+     * Reads the next complete request (headers and body) from the stream.
+     *
+     * @param in      socket input stream
+     * @param buffer  connection buffer in read mode; may already hold pipelined bytes
+     * @param request reusable request object, filled on success
+     * @return true if a request was read, false on a clean end of stream between requests
+     * @throws HttpParseException if the request is malformed or truncated
+     * @throws IOException        on socket errors
+     */
+    public static boolean read(InputStream in, ByteBuffer buffer, HttpRequest request) throws IOException {
+        if (!buffer.hasRemaining() && !fill(in, buffer)) {
+            return false;
+        }
+        FlightEvents.RequestStage event = new FlightEvents.RequestStage();
+        event.begin();   // after the first byte: idle keep-alive time is not part of the stage
+
+        int headerLength;
+        while ((headerLength = parseHeaders(buffer, request)) < 0) {
+            if (!fill(in, buffer)) {
+                if (buffer.hasRemaining()) {
+                    throw new HttpParseException("400 Bad Request", "Connection closed mid-headers");
+                }
+                return false;
+            }
+        }
+        buffer.position(buffer.position() + headerLength);
+
+        int length = request.contentLength;
+        if (length <= buffer.capacity()) {
+            // common case: body fits in the connection buffer, no copy needed
+            while (buffer.remaining() < length) {
+                if (!fill(in, buffer)) {
+                    throw new HttpParseException("400 Bad Request", "Connection closed mid-body");
+                }
+            }
+            request.body = buffer.array();
+            request.bodyOffset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] body = new byte[length];
+            int buffered = buffer.remaining();
+            buffer.get(body, 0, buffered);
+            int read = in.readNBytes(body, buffered, length - buffered);
+            if (buffered + read != length) {
+                throw new HttpParseException("400 Bad Request", "Connection closed mid-body");
+            }
+            request.body = body;
+            request.bodyOffset = 0;
+        }
+        FlightEvents.commitStage(event, FlightEvents.STAGE_READ, request.method.name(), headerLength + length);
+        return true;
+    }
+
+    /**
+     * Parses the request line and headers starting at the buffer's position.
+     * Does not move the buffer position.
+     *
+     * @return the length of the header block including the blank line,
+     *         or -1 if the header block is not complete yet
+     * @throws HttpParseException on malformed input
+     */
+    static int parseHeaders(ByteBuffer buffer, HttpRequest request) throws HttpParseException {
+        byte[] a = buffer.array();
+        int start = buffer.arrayOffset() + buffer.position();
+        int end = buffer.arrayOffset() + buffer.limit();
+        request.reset();
+
+        int lineEnd = indexOf(a, start, end, (byte) '\n');
+        if (lineEnd < 0) return incomplete(buffer);
+        parseRequestLine(a, start, trimCr(a, start, lineEnd), request);
+
+        boolean sawContentLength = false;
+        int pos = lineEnd + 1;
+        while (true) {
+            lineEnd = indexOf(a, pos, end, (byte) '\n');
+            if (lineEnd < 0) return incomplete(buffer);
+            int contentEnd = trimCr(a, pos, lineEnd);
+            if (contentEnd == pos) {
+                return lineEnd + 1 - start;   // blank line ends the header block
+            }
+
+            int colon = indexOf(a, pos, contentEnd, (byte) ':');
+            if (colon <= pos) {
+                throw new HttpParseException("400 Bad Request", "Malformed header line");
+            }
+            int nameEnd = trimTrailing(a, pos, colon);
+            int valueStart = skipLeading(a, colon + 1, contentEnd);
+            int valueEnd = trimTrailing(a, valueStart, contentEnd);
+
+            if (nameEquals(a, pos, nameEnd, CONTENT_LENGTH)) {
+                int length = parseInt(a, valueStart, valueEnd);
+                if (length < 0 || (sawContentLength && length != request.contentLength)) {
+                    throw new HttpParseException("400 Bad Request", "Invalid Content-Length");
+                }
+                if (length > MAX_BODY_BYTES) {
+                    throw new HttpParseException("413 Payload Too Large", "Body exceeds " + MAX_BODY_BYTES + " bytes");
+                }
+                request.contentLength = length;
+                sawContentLength = true;
+            } else if (nameEquals(a, pos, nameEnd, LAMPORT_CLOCK)) {
+                int sign = (valueStart < valueEnd && a[valueStart] == '-') ? -1 : 1;
+                int value = parseInt(a, sign < 0 ? valueStart + 1 : valueStart, valueEnd);
+                request.hasLamportClock = value >= 0;
+                request.lamportClock = sign * Math.max(value, 0);
+            } else if (nameEquals(a, pos, nameEnd, REPLICA_ID)) {
+                if (valueEnd > valueStart) {
+                    request.replicaId = new String(a, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+                }
+            } else if (nameEquals(a, pos, nameEnd, CONNECTION)) {
+                request.keepAlive = containsIgnoreCase(a, valueStart, valueEnd, KEEP_ALIVE);
+            } else if (nameEquals(a, pos, nameEnd, CONTENT_TYPE)) {
+                request.binaryBody = containsIgnoreCase(a, valueStart, valueEnd, BINARY_MEDIA_TYPE);
+            } else if (nameEquals(a, pos, nameEnd, ACCEPT)) {
+                request.binaryAccept = containsIgnoreCase(a, valueStart, valueEnd, BINARY_MEDIA_TYPE);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    /** Parses "METHOD SP target SP HTTP/1.x". */
+    private static void parseRequestLine(byte[] a, int start, int end, HttpRequest request)
+            throws HttpParseException {
+        int sp1 = indexOf(a, start, end, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(a, sp1 + 1, end, (byte) ' ');
+        if (sp1 <= start || sp2 <= sp1 + 1 || !regionEquals(a, sp2 + 1, end, HTTP_1, false)) {
+            throw new HttpParseException("400 Bad Request", "Malformed request line");
+        }
+
+        if (regionEquals(a, start, sp1, GET, true)) {
+            request.method = HttpRequest.Method.GET;
+        } else if (regionEquals(a, start, sp1, PUT, true)) {
+            request.method = HttpRequest.Method.PUT;
+        }
+
+        int queryStart = indexOf(a, sp1 + 1, sp2, (byte) '?');
+        int pathEnd = queryStart < 0 ? sp2 : queryStart;
+        if (regionEquals(a, sp1 + 1, pathEnd, PATH_AGGREGATES, true)) {
+            request.route = HttpRequest.Route.AGGREGATES;
+        } else if (regionEquals(a, sp1 + 1, pathEnd, PATH_HEARTBEAT, true)) {
+            request.route = HttpRequest.Route.HEARTBEAT;
+        } else if (regionEquals(a, sp1 + 1, pathEnd, PATH_ARCHIVE, true)) {
+            request.route = HttpRequest.Route.ARCHIVE;
+            if (queryStart >= 0) {
+                request.query = new String(a, queryStart + 1, sp2 - queryStart - 1, StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
+    /** Signals an incomplete header block, or 431 if it can never fit in the buffer. */
+    private static int incomplete(ByteBuffer buffer) throws HttpParseException {
+        if (buffer.remaining() >= buffer.capacity()) {
+            throw new HttpParseException("431 Request Header Fields Too Large",
+                    "Header block exceeds " + buffer.capacity() + " bytes");
+        }
+        return -1;
+    }
+
+    /**
+     * Reads more bytes into the buffer, compacting unconsumed bytes to the front.
+     *
+     * @return false at end of stream
+     */
+    private static boolean fill(InputStream in, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (n > 0) {
+            buffer.position(buffer.position() + n);
+        }
+        buffer.flip();
+        return n > 0;
+    }
+
+    // --- Byte helpers (no allocation) ---
+
+    private static int indexOf(byte[] a, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (a[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static int trimCr(byte[] a, int start, int lineEnd) {
+        return (lineEnd > start && a[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+    }
+
+    private static int skipLeading(byte[] a, int from, int to) {
+        while (from < to && (a[from] == ' ' || a[from] == '\t')) from++;
+        return from;
+    }
+
+    private static int trimTrailing(byte[] a, int from, int to) {
+        while (to > from && (a[to - 1] == ' ' || a[to - 1] == '\t')) to--;
+        return to;
+    }
+
+    /** Case-sensitive comparison of the whole region, or of its prefix if exactLength is false. */
+    private static boolean regionEquals(byte[] a, int from, int to, byte[] expected, boolean exactLength) {
+        int length = to - from;
+        if (exactLength ? length != expected.length : length < expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (a[from + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean nameEquals(byte[] a, int from, int to, byte[] lowerName) {
+        if (to - from != lowerName.length) return false;
+        for (int i = 0; i < lowerName.length; i++) {
+            if (toLower(a[from + i]) != lowerName[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] a, int from, int to, byte[] lowerNeedle) {
+        outer:
+        for (int i = from; i <= to - lowerNeedle.length; i++) {
+            for (int j = 0; j < lowerNeedle.length; j++) {
+                if (toLower(a[i + j]) != lowerNeedle[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Parses a non-negative decimal int; returns -1 if empty, non-numeric or overflowing. */
+    private static int parseInt(byte[] a, int from, int to) {
+        if (from >= to || to - from > 10) return -1;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = a[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+    private static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
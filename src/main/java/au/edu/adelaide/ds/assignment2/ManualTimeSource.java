@@ -0,0 +1,48 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ManualTimeSource is a TimeSource that only changes when set or advanced.
+ * Combine it with ServerConfig.setCleanupIntervalMs(0) and
+ * AggregationServer.runCleanup() to step through expiry deterministically.
+ * Thread-safe.
+ */
+public class ManualTimeSource implements TimeSource {
+
+    private final AtomicLong now;
+
+    /**
+     * @param startMillis initial time in milliseconds since the epoch
+     */
+    public ManualTimeSource(long startMillis) {
+        this.now = new AtomicLong(startMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now.get();
+    }
+
+    /**
+     * Moves time forward.
+     *
+     * @param millis amount to advance (must not be negative)
+     * @return the new time
+     */
+    public long advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Time cannot move backwards: " + millis);
+        }
+        return now.addAndGet(millis);
+    }
+
+    /**
+     * Sets the current time.
+     *
+     * @param millis new time in milliseconds since the epoch
+     */
+    public void set(long millis) {
+        now.set(millis);
+    }
+}
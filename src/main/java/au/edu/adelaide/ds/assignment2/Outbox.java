@@ -0,0 +1,173 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Outbox is a ContentServer's durable, append-only log of updates that could
+ * not be delivered to the AggregationServer.
+ * - append() writes and fsyncs one update, so nothing is lost if the process dies
+ * - pending() returns the logged updates in Lamport order; with coalescing only
+ *   the latest update per station is kept
+ * - retain() atomically rewrites the log with the updates still undelivered
+ * .
+ * Entry layout: [int length][int lamport][boolean binary][UTF station][payload]
+ * A truncated tail (crash mid-append) is ignored when reading.
+ */
+public class Outbox {
+
+    private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+    private final File file;
+    private final boolean coalesce;
+    private int size;   // entries currently in the file (guarded by this)
+
+    /**
+     * @param file     log file (created on first append)
+     * @param coalesce keep only the latest update per station when replaying
+     */
+    public Outbox(File file, boolean coalesce) {
+        this.file = file;
+        this.coalesce = coalesce;
+        if (file.exists()) {
+            retain(readEntries());   // drops a truncated tail so later appends stay readable
+        }
+        if (size > 0) {
+            logger.info("Outbox " + file.getName() + ": " + size + " undelivered update(s) from previous run");
+        }
+    }
+
+    /** Returns true if there are no undelivered updates. */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Durably appends an undelivered update.
+     *
+     * @param update update that failed to send
+     */
+    public synchronized void append(ContentServer.Update update) {
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create outbox directory " + parent);
+            }
+            byte[] entry = encode(update);
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(entry);
+                out.getFD().sync();
+            }
+            size++;
+            commitPersistence(event, "outbox-append", 1, entry.length);
+        } catch (IOException e) {
+            logger.severe("Failed to write outbox " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the undelivered updates in Lamport order (coalesced per station if enabled).
+     *
+     * @return updates to replay
+     */
+    public synchronized List<ContentServer.Update> pending() {
+        List<ContentServer.Update> entries = readEntries();
+        if (coalesce) {
+            Map<String, ContentServer.Update> latest = new HashMap<>();
+            for (ContentServer.Update update : entries) {
+                latest.merge(update.station, update, (a, b) -> a.lamport >= b.lamport ? a : b);
+            }
+            entries = new ArrayList<>(latest.values());
+        }
+        entries.sort(Comparator.comparingInt(u -> u.lamport));
+        return entries;
+    }
+
+    /**
+     * Replaces the log contents with the given updates (those still undelivered).
+     *
+     * @param undelivered updates to keep; empty clears the outbox
+     */
+    public synchronized void retain(List<ContentServer.Update> undelivered) {
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
+        try {
+            if (undelivered.isEmpty()) {
+                Files.deleteIfExists(file.toPath());
+            } else {
+                File temp = new File(file.getPath() + ".tmp");
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    for (ContentServer.Update update : undelivered) {
+                        out.write(encode(update));
+                    }
+                    out.getFD().sync();
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            size = undelivered.size();
+            commitPersistence(event, "outbox-rewrite", size, file.length());
+        } catch (IOException e) {
+            logger.severe("Failed to rewrite outbox " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void commitPersistence(FlightEvents.Persistence event, String operation, int records, long bytes) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = file.getName();
+            event.records = records;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private static byte[] encode(ContentServer.Update update) throws IOException {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(update.payload.length + 64);
+        DataOutputStream data = new DataOutputStream(entry);
+        data.writeInt(update.lamport);
+        data.writeBoolean(BinaryCodec.isBinary(update.contentType));
+        data.writeUTF(update.station);
+        data.write(update.payload);
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(entry.size() + 4);
+        new DataOutputStream(framed).writeInt(entry.size());
+        entry.writeTo(framed);
+        return framed.toByteArray();
+    }
+
+    private List<ContentServer.Update> readEntries() {
+        List<ContentServer.Update> entries = new ArrayList<>();
+        if (!file.exists()) return entries;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] entry = length < 0 ? new byte[0] : in.readNBytes(length);
+                if (entry.length < length || length < 0) {
+                    logger.warning("Outbox " + file.getName() + ": ignoring truncated or corrupt entry at end of file");
+                    break;
+                }
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(entry));
+                int lamport = data.readInt();
+                boolean binary = data.readBoolean();
+                String station = data.readUTF();
+                byte[] payload = data.readAllBytes();
+                entries.add(new ContentServer.Update(lamport, station, payload,
+                        binary ? BinaryCodec.CONTENT_TYPE : BinaryCodec.JSON_CONTENT_TYPE));
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to read outbox " + file + ": " + e.getMessage());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,409 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+
+/**
+ * RecordArchive is the on-disk tier for expired weather records.
+ * .
+ * Features:
+ * - Append-only segment files, partitioned by archive time (1 hour per segment)
+ * - Sparse in-memory index per segment: station → Lamport range + first entry offset
+ * - Queries read segments through memory-mapping, never touching the hot store
+ * - Background compaction merges hourly segments of past days into one daily
+ *   segment (dropping duplicate station/Lamport entries)
+ * - Retention policy deletes segments older than RETENTION_MS
+ * .
+ * Entry layout: [int length][int lamport][long receivedTime][short stationLen][station][json]
+ */
+public class RecordArchive implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(RecordArchive.class.getName());
+    private static final long HOUR_MS = 3_600_000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final long RETENTION_MS = 7 * DAY_MS;            // keep one week of history
+    private static final long MAINTENANCE_INTERVAL_MS = 60_000;     // compaction/retention pass
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int ENTRY_HEADER_BYTES = 4 + 8 + 2;        // lamport + receivedTime + stationLen
+
+    private final File directory;
+    private final TimeSource timeSource;
+    private final Gson gson = new Gson();
+    private final TreeMap<String, Segment> segments = new TreeMap<>(); // file name → segment, guarded by this
+    private volatile Thread maintenanceThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an archive rooted at the given directory and rebuilds the
+     * segment indexes from any existing files.
+     *
+     * @param directory directory holding segment files (created if missing)
+     */
+    public RecordArchive(File directory) {
+        this(directory, TimeSource.SYSTEM);
+    }
+
+    /**
+     * @param directory  directory holding segment files (created if missing)
+     * @param timeSource clock used by the maintenance pass (retention and compaction)
+     */
+    public RecordArchive(File directory, TimeSource timeSource) {
+        this.directory = directory;
+        this.timeSource = timeSource;
+        if (!directory.exists() && !directory.mkdirs()) {
+            logger.severe("Failed to create archive directory " + directory);
+        }
+        loadSegments();
+    }
+
+    /**
+     * Appends expired records to the segment of the current hour and forces
+     * them to disk before returning.
+     *
+     * @param records records removed from the hot store
+     * @param now     archive time (selects the segment partition)
+     * @return true if the records are durable; false if the write failed (the
+     *         segment is rolled back to its previous size)
+     */
+    public synchronized boolean append(List<WeatherRecord> records, long now) {
+        if (records.isEmpty()) return true;
+
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
+        long partition = now - Math.floorMod(now, HOUR_MS);
+        Segment segment = segments.computeIfAbsent(segmentName(partition, HOUR_MS),
+                name -> new Segment(new File(directory, name), partition, HOUR_MS));
+        long sizeBefore = segment.size;
+        long[] offsets = new long[records.size()];   // indexed only once durable
+        long size = sizeBefore;
+
+        try (FileOutputStream file = new FileOutputStream(segment.file, true)) {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                for (int i = 0; i < offsets.length; i++) {
+                    WeatherRecord record = records.get(i);
+                    byte[] station = record.getStation().getBytes(StandardCharsets.UTF_8);
+                    byte[] json = gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+
+                    out.writeInt(ENTRY_HEADER_BYTES + station.length + json.length);
+                    out.writeInt(record.getLamportTimestamp());
+                    out.writeLong(record.getReceivedTime());
+                    out.writeShort(station.length);
+                    out.write(station);
+                    out.write(json);
+
+                    offsets[i] = size;
+                    size += 4 + ENTRY_HEADER_BYTES + station.length + json.length;
+                }
+                out.flush();
+                file.getFD().sync();   // the caller drops the records from the store only after this
+            } catch (IOException e) {
+                file.getChannel().truncate(sizeBefore);   // keep index offsets valid for the next append
+                throw e;
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to archive records: " + e.getMessage());
+            return false;
+        }
+
+        for (int i = 0; i < offsets.length; i++) {
+            segment.index(records.get(i).getStation(), records.get(i).getLamportTimestamp(), offsets[i]);
+        }
+        segment.size = size;
+        logger.info("Archive: appended " + records.size() + " record(s) to " + segment.file.getName());
+        commitPersistence(event, "archive-append", segment.file, records.size(), size - sizeBefore);
+        return true;
+    }
+
+    /**
+     * Queries archived records.
+     *
+     * @param station     station ID to match, or null for all stations
+     * @param fromLamport inclusive lower Lamport bound
+     * @param toLamport   inclusive upper Lamport bound
+     * @return matching records ordered by segment, then append order
+     */
+    public synchronized List<WeatherRecord> query(String station, int fromLamport, int toLamport) {
+        List<WeatherRecord> result = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            long start = segment.firstOffset(station, fromLamport, toLamport);
+            if (start < 0) continue;   // sparse index rules this segment out
+
+            try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.position((int) start);
+                scan(buffer, (entryStation, lamport, received, json) -> {
+                    if ((station == null || station.equals(entryStation))
+                            && lamport >= fromLamport && lamport <= toLamport) {
+                        result.add(gson.fromJson(json, WeatherRecord.class));
+                    }
+                });
+            } catch (IOException e) {
+                logger.warning("Failed to read archive segment " + segment.file + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Starts a background thread that periodically compacts past-day segments
+     * and applies the retention policy.
+     */
+    public void startMaintenanceThread() {
+        Thread thread = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(MAINTENANCE_INTERVAL_MS);
+                    runMaintenance();
+                } catch (InterruptedException e) {
+                    if (!closed) logger.warning("Archive maintenance thread interrupted.");
+                    break;
+                }
+            }
+        }, "archive-maintenance");
+        thread.setDaemon(true);
+        maintenanceThread = thread;
+        thread.start();
+    }
+
+    /** Runs one retention and compaction pass at the time source's current time. */
+    public void runMaintenance() {
+        long now = timeSource.currentTimeMillis();
+        applyRetention(now);
+        compact(now);
+    }
+
+    /** Stops the maintenance thread. Segment files stay on disk. */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = maintenanceThread;
+        if (thread != null) thread.interrupt();
+    }
+
+    /** Deletes segments whose partition ended before the retention window. */
+    synchronized void applyRetention(long now) {
+        Iterator<Segment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.partitionStart + segment.span < now - RETENTION_MS) {
+                if (segment.file.delete()) {
+                    it.remove();
+                    logger.info("Archive: retention removed " + segment.file.getName());
+                } else {
+                    logger.warning("Archive: failed to delete " + segment.file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges hourly segments of past days into one daily segment per day,
+     * dropping duplicate (station, Lamport) entries.
+     */
+    synchronized void compact(long now) {
+        long today = now - Math.floorMod(now, DAY_MS);
+        Map<Long, List<Segment>> byDay = new TreeMap<>();
+        for (Segment segment : segments.values()) {
+            long day = segment.partitionStart - Math.floorMod(segment.partitionStart, DAY_MS);
+            if (day < today) {
+                byDay.computeIfAbsent(day, d -> new ArrayList<>()).add(segment);
+            }
+        }
+
+        for (Map.Entry<Long, List<Segment>> entry : byDay.entrySet()) {
+            List<Segment> sources = entry.getValue();
+            if (sources.size() == 1 && sources.get(0).span == DAY_MS) continue;  // already compacted
+            try {
+                mergeDay(entry.getKey(), sources);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Archive compaction failed for day " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private void mergeDay(long day, List<Segment> sources) throws IOException {
+        FlightEvents.Persistence event = new FlightEvents.Persistence();
+        event.begin();
+        File target = new File(directory, segmentName(day, DAY_MS));
+        File temp = new File(directory, target.getName() + ".tmp");
+        Segment merged = new Segment(target, day, DAY_MS);
+        Set<String> seen = new HashSet<>();
+
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (Segment source : sources) {
+                try (FileChannel channel = FileChannel.open(source.file.toPath(), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    scan(buffer, (station, lamport, received, json) -> {
+                        if (!seen.add(station + "@" + lamport)) return;
+                        byte[] stationBytes = station.getBytes(StandardCharsets.UTF_8);
+                        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(ENTRY_HEADER_BYTES + stationBytes.length + jsonBytes.length);
+                        out.writeInt(lamport);
+                        out.writeLong(received);
+                        out.writeShort(stationBytes.length);
+                        out.write(stationBytes);
+                        out.write(jsonBytes);
+                        merged.index(station, lamport, merged.size);
+                        merged.size += 4 + ENTRY_HEADER_BYTES + stationBytes.length + jsonBytes.length;
+                    });
+                }
+            }
+            out.flush();
+            file.getFD().sync();   // the merged entries must be on disk before the rename publishes them
+        }
+
+        // publish the merged segment before deleting sources; leftovers are deduplicated next pass
+        Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();   // make the rename durable before the sources disappear
+        for (Segment source : sources) {
+            segments.remove(source.file.getName());
+            if (!source.file.equals(target) && !source.file.delete()) {
+                logger.warning("Archive: failed to delete compacted segment " + source.file.getName());
+            }
+        }
+        segments.put(target.getName(), merged);
+        logger.info("Archive: compacted " + sources.size() + " segment(s) into " + target.getName());
+        commitPersistence(event, "archive-compact", target, seen.size(), merged.size);
+    }
+
+    /**
+     * Forces the directory entry changes (renames, new files) to disk. Some
+     * platforms cannot open a directory as a channel; there the rename is left
+     * to the file system's own ordering.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.fine("Archive: directory sync not supported for " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static void commitPersistence(FlightEvents.Persistence event, String operation, File file,
+                                          int records, long bytes) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = file.getName();
+            event.records = records;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /** Rebuilds the in-memory segment indexes from the files on disk. */
+    private synchronized void loadSegments() {
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) return;
+
+        for (File file : files) {
+            String[] parts = file.getName()
+                    .substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length())
+                    .split("-");
+            try {
+                Segment segment = new Segment(file, Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    scan(buffer, (station, lamport, received, json) ->
+                            segment.index(station, lamport, buffer.position()));
+                    segment.size = buffer.position();
+                    if (segment.size < channel.size()) {
+                        logger.warning("Archive: truncating partial entry at end of " + file.getName());
+                        channel.truncate(segment.size);
+                    }
+                }
+                segments.put(file.getName(), segment);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException | IOException e) {
+                logger.warning("Skipping unreadable archive segment " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        logger.info("Archive: loaded " + segments.size() + " segment(s) from " + directory);
+    }
+
+    /**
+     * Walks entries from the buffer's current position. Stops at a truncated tail
+     * (e.g. a crash mid-append), leaving the position at the last complete entry.
+     */
+    private static void scan(ByteBuffer buffer, EntryVisitor visitor) throws IOException {
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < ENTRY_HEADER_BYTES || length > buffer.remaining()) {
+                buffer.position(start);
+                return;
+            }
+            int lamport = buffer.getInt();
+            long received = buffer.getLong();
+            byte[] station = new byte[buffer.getShort()];
+            buffer.get(station);
+            byte[] json = new byte[length - ENTRY_HEADER_BYTES - station.length];
+            buffer.get(json);
+
+            // report the entry's start offset via position during the callback
+            int end = buffer.position();
+            buffer.position(start);
+            visitor.visit(new String(station, StandardCharsets.UTF_8), lamport, received,
+                    new String(json, StandardCharsets.UTF_8));
+            buffer.position(end);
+        }
+    }
+
+    private static String segmentName(long partitionStart, long span) {
+        // zero-padded so that name order is chronological order
+        return String.format("%s%013d-%d%s", SEGMENT_PREFIX, partitionStart, span, SEGMENT_SUFFIX);
+    }
+
+    /** Callback for entries decoded by scan(). */
+    private interface EntryVisitor {
+        void visit(String station, int lamport, long receivedTime, String json) throws IOException;
+    }
+
+    /** One segment file and its sparse index. */
+    private static final class Segment {
+        private final File file;
+        private final long partitionStart;
+        private final long span;
+        private final Map<String, long[]> stations = new HashMap<>();  // station → {minLamport, maxLamport, firstOffset}
+        private int minLamport = Integer.MAX_VALUE;
+        private int maxLamport = Integer.MIN_VALUE;
+        private long size;
+
+        Segment(File file, long partitionStart, long span) {
+            this.file = file;
+            this.partitionStart = partitionStart;
+            this.span = span;
+        }
+
+        void index(String station, int lamport, long offset) {
+            long[] range = stations.computeIfAbsent(station, s -> new long[]{lamport, lamport, offset});
+            range[0] = Math.min(range[0], lamport);
+            range[1] = Math.max(range[1], lamport);
+            minLamport = Math.min(minLamport, lamport);
+            maxLamport = Math.max(maxLamport, lamport);
+        }
+
+        /** Returns the offset to start scanning from, or -1 if no entry can match. */
+        long firstOffset(String station, int fromLamport, int toLamport) {
+            if (station == null) {
+                return (maxLamport < fromLamport || minLamport > toLamport) ? -1 : 0;
+            }
+            long[] range = stations.get(station);
+            if (range == null || range[1] < fromLamport || range[0] > toLamport) return -1;
+            return range[2];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.util.*;
+
+/**
+ * ReplicaDedup recognizes retried PUTs that were already handled, keyed by
+ * (replicaId, sender Lamport-Clock value), before their body is decoded.
+ * - Per replica: the highest Lamport value seen plus a 64-bit bitmap of the 64 values
+ *   below it (sliding window)
+ * - At most MAX_REPLICAS replicas are tracked; the least recently used one is dropped
+ * .
+ * This is only a fast path: losing a window (eviction, restart) means a retry is
+ * decoded once more. Whether an update is older than the stored record is decided
+ * against the store itself (WeatherRecord.getSourceLamport()), which is never evicted.
+ * Sender Lamport values are only compared within one replica, whose ContentServer
+ * keeps its clock monotonic across restarts (see ClockStore). Updates without a
+ * replica ID are not deduplicated.
+ * Thread-safe.
+ */
+public class ReplicaDedup {
+
+    static final int WINDOW_SIZE = 64;
+    static final int MAX_REPLICAS = 65_536;
+
+    private final Map<String, Window> windows = new LinkedHashMap<String, Window>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return size() > MAX_REPLICAS;
+        }
+    };
+
+    /**
+     * Fast check done before decoding: was this exact update handled already?
+     *
+     * @param replicaId sending replica
+     * @param lamport   sender's Lamport-Clock value
+     * @return true if the update is a known duplicate
+     */
+    public synchronized boolean isDuplicate(String replicaId, int lamport) {
+        Window window = windows.get(replicaId);
+        return window != null && window.contains(lamport);
+    }
+
+    /**
+     * Marks an update as handled, so a retry of it is recognized by isDuplicate().
+     *
+     * @param replicaId sending replica
+     * @param lamport   sender's Lamport-Clock value
+     */
+    public synchronized void markHandled(String replicaId, int lamport) {
+        windows.computeIfAbsent(replicaId, r -> new Window()).add(lamport);
+    }
+
+    /** Forgets all replicas (used before restoring from disk). */
+    public synchronized void clear() {
+        windows.clear();
+    }
+
+    /** Sliding window of handled Lamport values of one replica. */
+    private static final class Window {
+        private long highest = Long.MIN_VALUE;
+        private long seen;   // bit i set = (highest - i) was handled
+
+        boolean contains(long lamport) {
+            if (highest == Long.MIN_VALUE || lamport > highest) return false;
+            long age = highest - lamport;
+            return age < WINDOW_SIZE && (seen & (1L << age)) != 0;
+        }
+
+        void add(long lamport) {
+            if (highest == Long.MIN_VALUE) {
+                highest = lamport;
+                seen = 1L;
+            } else if (lamport > highest) {
+                long shift = lamport - highest;
+                seen = (shift >= WINDOW_SIZE ? 0L : seen << shift) | 1L;
+                highest = lamport;
+            } else if (highest - lamport < WINDOW_SIZE) {
+                seen |= 1L << (highest - lamport);
+            }
+        }
+    }
+}
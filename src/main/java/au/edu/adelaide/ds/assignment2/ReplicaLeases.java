@@ -0,0 +1,99 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.util.*;
+
+/**
+ * ReplicaLeases tracks, per replica, which stations it owns and when its
+ * expiry lease was last renewed.
+ * - A full PUT renews the lease of the sending replica and claims the station
+ * - A heartbeat renews the lease of all stations owned by a replica at once,
+ *   without resending or re-storing any record
+ * - Expiry is decided per replica: one check per lease, not per record
+ * .
+ * Records without a replicaId get a lease of their own (keyed by station),
+ * so they keep the original per-record expiry behaviour.
+ * All access must happen while holding the weatherData monitor.
+ */
+public class ReplicaLeases {
+
+    private static final String ANONYMOUS_PREFIX = "station:";
+
+    private final Map<String, Lease> leases = new HashMap<>();          // owner → lease
+    private final Map<String, String> ownerByStation = new HashMap<>(); // station → owner
+
+    /**
+     * Renews the lease for a stored record and records the station's owner.
+     *
+     * @param replicaId replica that sent the record (may be null)
+     * @param station   station ID of the record
+     * @param now       renewal time in ms
+     */
+    public void renew(String replicaId, String station, long now) {
+        String owner = replicaId != null ? replicaId : ANONYMOUS_PREFIX + station;
+        String previous = ownerByStation.put(station, owner);
+        if (previous != null && !previous.equals(owner)) {
+            release(previous, station);   // station moved to another replica
+        }
+        Lease lease = leases.computeIfAbsent(owner, o -> new Lease());
+        lease.stations.add(station);
+        lease.renewedAt = Math.max(lease.renewedAt, now);
+    }
+
+    /**
+     * Renews the lease of every station owned by a replica.
+     *
+     * @param replicaId replica sending the heartbeat
+     * @param now       renewal time in ms
+     * @return false if the replica owns no stations (it must resend full records)
+     */
+    public boolean heartbeat(String replicaId, long now) {
+        Lease lease = leases.get(replicaId);
+        if (lease == null) return false;
+        lease.renewedAt = Math.max(lease.renewedAt, now);
+        return true;
+    }
+
+    /**
+     * Removes all leases not renewed within the given duration.
+     *
+     * @param now        current time in ms
+     * @param durationMs lease duration
+     * @return stations whose records have expired
+     */
+    public List<String> expire(long now, long durationMs) {
+        List<String> expired = new ArrayList<>();
+        Iterator<Map.Entry<String, Lease>> it = leases.entrySet().iterator();
+        while (it.hasNext()) {
+            Lease lease = it.next().getValue();
+            if (now - lease.renewedAt > durationMs) {
+                for (String station : lease.stations) {
+                    ownerByStation.remove(station);
+                    expired.add(station);
+                }
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    /** Drops all leases (used before restoring from disk). */
+    public void clear() {
+        leases.clear();
+        ownerByStation.clear();
+    }
+
+    private void release(String owner, String station) {
+        Lease lease = leases.get(owner);
+        if (lease == null) return;
+        lease.stations.remove(station);
+        if (lease.stations.isEmpty()) {
+            leases.remove(owner);
+        }
+    }
+
+    /** Stations owned by one replica and the time of the last renewal. */
+    private static final class Lease {
+        private final Set<String> stations = new HashSet<>();
+        private long renewedAt;
+    }
+}
@@ -0,0 +1,97 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.File;
+
+/**
+ * ServerConfig holds the settings of an AggregationServer. The defaults match
+ * the standalone server:
+ * - dataDir: "." (weather_data.json and archive/ are created inside it)
+ * - port: 4567; 0 binds an ephemeral port (read it back with getPort())
+ * - expiryMs: 30s without a PUT or heartbeat before a replica's records expire
+ * - cleanupIntervalMs: 5s between cleanup passes; 0 disables the cleanup thread,
+ *   so passes only run through AggregationServer.runCleanup()
+ * - idleTimeoutMs: 30s a connection may wait for its next request before it is closed
+ * - timeSource: TimeSource.SYSTEM
+ * .
+ * Setters return this so a config can be written in one expression.
+ */
+public class ServerConfig {
+
+    public static final int DEFAULT_PORT = 4567;
+    public static final long DEFAULT_EXPIRY_MS = 30_000;          // 30 seconds
+    public static final long DEFAULT_CLEANUP_INTERVAL_MS = 5_000; // 5 seconds
+    public static final int DEFAULT_IDLE_TIMEOUT_MS = 30_000;     // 30 seconds
+
+    private File dataDir = new File(".");
+    private int port = DEFAULT_PORT;
+    private long expiryMs = DEFAULT_EXPIRY_MS;
+    private long cleanupIntervalMs = DEFAULT_CLEANUP_INTERVAL_MS;
+    private int idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private TimeSource timeSource = TimeSource.SYSTEM;
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    public ServerConfig setDataDir(File dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ServerConfig setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + port);
+        }
+        this.port = port;
+        return this;
+    }
+
+    public long getExpiryMs() {
+        return expiryMs;
+    }
+
+    public ServerConfig setExpiryMs(long expiryMs) {
+        if (expiryMs <= 0) {
+            throw new IllegalArgumentException("Expiry must be positive: " + expiryMs);
+        }
+        this.expiryMs = expiryMs;
+        return this;
+    }
+
+    public long getCleanupIntervalMs() {
+        return cleanupIntervalMs;
+    }
+
+    public ServerConfig setCleanupIntervalMs(long cleanupIntervalMs) {
+        if (cleanupIntervalMs < 0) {
+            throw new IllegalArgumentException("Cleanup interval must not be negative: " + cleanupIntervalMs);
+        }
+        this.cleanupIntervalMs = cleanupIntervalMs;
+        return this;
+    }
+
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public ServerConfig setIdleTimeoutMs(int idleTimeoutMs) {
+        if (idleTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive: " + idleTimeoutMs);
+        }
+        this.idleTimeoutMs = idleTimeoutMs;
+        return this;
+    }
+
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    public ServerConfig setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+        return this;
+    }
+}
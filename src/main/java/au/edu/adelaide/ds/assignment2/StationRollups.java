@@ -0,0 +1,129 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.util.*;
+
+/**
+ * StationRollups keeps cross-station aggregates (count, average, min, max of
+ * temperature and humidity) grouped by state, plus a global rollup.
+ * - add() is called when a record is stored
+ * - retract() is called when a record is replaced or expires
+ * - Aggregates are never recomputed over the whole store
+ * .
+ * Count and sum are maintained in O(1). Min/max use a sorted value multiset
+ * so that retracting the current extreme stays cheap (O(log n) per update).
+ * All access must happen while holding the weatherData monitor.
+ */
+public class StationRollups {
+
+    /** Group key used for the rollup over every station. */
+    public static final String GLOBAL = "*";
+    private static final String UNKNOWN_STATE = "unknown";
+
+    private final Map<String, Rollup> rollups = new TreeMap<>();
+
+    /**
+     * Adds a newly stored record to its state rollup and the global rollup.
+     *
+     * @param record the stored record
+     */
+    public void add(WeatherRecord record) {
+        apply(record, +1);
+    }
+
+    /**
+     * Retracts a replaced or expired record from its state rollup and the global rollup.
+     *
+     * @param record the record leaving the store
+     */
+    public void retract(WeatherRecord record) {
+        apply(record, -1);
+    }
+
+    /** Drops all aggregates (used before restoring from disk). */
+    public void clear() {
+        rollups.clear();
+    }
+
+    /**
+     * Returns a JSON-friendly snapshot: group key → metric → summary.
+     *
+     * @return aggregate snapshot, keyed by state and GLOBAL
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Rollup> entry : rollups.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+
+    private void apply(WeatherRecord record, int sign) {
+        String state = record.getState() != null ? record.getState() : UNKNOWN_STATE;
+        update(GLOBAL, record, sign);
+        update(state, record, sign);
+    }
+
+    private void update(String group, WeatherRecord record, int sign) {
+        Rollup rollup = rollups.computeIfAbsent(group, k -> new Rollup());
+        rollup.stations += sign;
+        rollup.temperature.apply(parse(record.getTemperature()), sign);
+        rollup.humidity.apply(parse(record.getHumidity()), sign);
+        if (rollup.stations <= 0) {
+            rollups.remove(group);
+        }
+    }
+
+    /** Parses a numeric field; non-numeric values are ignored by the rollups. */
+    private static Double parse(String value) {
+        if (value == null) return null;
+        try {
+            double d = Double.parseDouble(value);
+            return Double.isNaN(d) ? null : d;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Aggregates for one group. */
+    private static final class Rollup {
+        private int stations;
+        private final Metric temperature = new Metric();
+        private final Metric humidity = new Metric();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("stations", stations);
+            map.put("temperature", temperature.toMap());
+            map.put("humidity", humidity.toMap());
+            return map;
+        }
+    }
+
+    /** Count/sum/min/max of one numeric field with support for retraction. */
+    private static final class Metric {
+        private long count;
+        private double sum;
+        private final TreeMap<Double, Integer> values = new TreeMap<>();
+
+        void apply(Double value, int sign) {
+            if (value == null) return;
+            count += sign;
+            sum += sign * value;
+            values.merge(value, sign, Integer::sum);
+            if (values.get(value) <= 0) {
+                values.remove(value);
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            if (count > 0) {
+                map.put("avg", sum / count);
+                map.put("min", values.firstKey());
+                map.put("max", values.lastKey());
+            }
+            return map;
+        }
+    }
+}
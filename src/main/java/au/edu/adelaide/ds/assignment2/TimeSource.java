@@ -0,0 +1,16 @@
+package au.edu.adelaide.ds.assignment2;
+
+/**
+ * TimeSource supplies wall-clock time (ms) to the AggregationServer and its archive.
+ * - SYSTEM reads System.currentTimeMillis()
+ * - ManualTimeSource only moves when told to, so expiry, archiving and retention
+ *   can be exercised without real sleeps
+ */
+public interface TimeSource {
+
+    /** Time source backed by System.currentTimeMillis(). */
+    TimeSource SYSTEM = System::currentTimeMillis;
+
+    /** Returns the current time in milliseconds since the epoch. */
+    long currentTimeMillis();
+}
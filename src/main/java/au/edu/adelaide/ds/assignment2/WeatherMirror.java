@@ -0,0 +1,123 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.util.*;
+
+/**
+ * WeatherMirror is a client-side, station-keyed copy of the AggregationServer's records.
+ * - Each poll is applied as a Sync: records are fed one by one while they are
+ *   decoded, so a response never has to be held as a whole list
+ * - commit() replaces the mirror with the records seen and returns only the
+ *   differences (added, updated, removed stations)
+ * - A record counts as updated when any of its reported fields changed
+ * .
+ * Safe for use by several threads; one Sync should be fed by a single thread.
+ */
+public class WeatherMirror {
+
+    private final Map<String, WeatherRecord> records = new LinkedHashMap<>();   // station → record
+
+    /** Starts applying a new full response to the mirror. */
+    public Sync begin() {
+        return new Sync();
+    }
+
+    /** Returns a copy of the mirrored records, keyed by station. */
+    public synchronized Map<String, WeatherRecord> snapshot() {
+        return new LinkedHashMap<>(records);
+    }
+
+    /** Returns the mirrored record of a station, or null. */
+    public synchronized WeatherRecord get(String station) {
+        return records.get(station);
+    }
+
+    /** Returns the number of mirrored stations. */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    private synchronized Diff replace(Map<String, WeatherRecord> seen) {
+        List<WeatherRecord> added = new ArrayList<>();
+        List<WeatherRecord> updated = new ArrayList<>();
+        List<WeatherRecord> removed = new ArrayList<>();
+
+        for (WeatherRecord record : seen.values()) {
+            WeatherRecord old = records.get(record.getStation());
+            if (old == null) {
+                added.add(record);
+            } else if (!sameReading(old, record)) {
+                updated.add(record);
+            }
+        }
+        for (WeatherRecord old : records.values()) {
+            if (!seen.containsKey(old.getStation())) {
+                removed.add(old);
+            }
+        }
+
+        records.clear();
+        records.putAll(seen);
+        return new Diff(added, updated, removed);
+    }
+
+    private static boolean sameReading(WeatherRecord a, WeatherRecord b) {
+        return a.getLamportTimestamp() == b.getLamportTimestamp()
+                && Objects.equals(a.getTemperature(), b.getTemperature())
+                && Objects.equals(a.getHumidity(), b.getHumidity())
+                && Objects.equals(a.getReplicaId(), b.getReplicaId())
+                && Objects.equals(a.getState(), b.getState());
+    }
+
+    /** One response being applied to the mirror. */
+    public final class Sync {
+        private final Map<String, WeatherRecord> seen = new LinkedHashMap<>();
+
+        private Sync() {}
+
+        /** Adds one decoded record of the response. */
+        public void accept(WeatherRecord record) {
+            if (record != null && record.getStation() != null) {
+                seen.put(record.getStation(), record);
+            }
+        }
+
+        /**
+         * Replaces the mirror with the records of this response.
+         *
+         * @return differences to the previous state of the mirror
+         */
+        public Diff commit() {
+            return replace(seen);
+        }
+    }
+
+    /** Changes between two consecutive states of the mirror. */
+    public static final class Diff {
+        private final List<WeatherRecord> added;
+        private final List<WeatherRecord> updated;
+        private final List<WeatherRecord> removed;
+
+        Diff(List<WeatherRecord> added, List<WeatherRecord> updated, List<WeatherRecord> removed) {
+            this.added = Collections.unmodifiableList(added);
+            this.updated = Collections.unmodifiableList(updated);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        public List<WeatherRecord> getAdded() {
+            return added;
+        }
+
+        public List<WeatherRecord> getUpdated() {
+            return updated;
+        }
+
+        /** Records (last known state) of stations no longer reported by the server. */
+        public List<WeatherRecord> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -7,7 +7,9 @@ package au.edu.adelaide.ds.assignment2;
  * - temperature
  * - humidity
  * - replicaId (optional, for tracking which content server sent it)
+ * - state (optional, used to group records for rollups)
  * - Lamport timestamp (for ordering)
+ * - sourceLamport (the sender's Lamport-Clock value, -1 if unknown; used for deduplication)
  * - receivedTime (for 30s expiry)
  */
 public class WeatherRecord {
@@ -15,16 +17,30 @@ public class WeatherRecord {
     private final String temperature;       // air_temp
     private final String humidity;          // rel_hum
     private final String replicaId;         // optional, which content server sent it
+    private final String state;             // optional, grouping key for rollups
     private final int lamportTimestamp;     // Lamport logical clock
+    private final int sourceLamport;        // sender's Lamport-Clock value, -1 if unknown
     private final long receivedTime;        // used for expiry
 
     public WeatherRecord(String station, String temperature, String humidity,
                          String replicaId, int lamportTimestamp, long receivedTime) {
+        this(station, temperature, humidity, replicaId, null, lamportTimestamp, receivedTime);
+    }
+
+    public WeatherRecord(String station, String temperature, String humidity,
+                         String replicaId, String state, int lamportTimestamp, long receivedTime) {
+        this(station, temperature, humidity, replicaId, state, lamportTimestamp, -1, receivedTime);
+    }
+
+    public WeatherRecord(String station, String temperature, String humidity, String replicaId,
+                         String state, int lamportTimestamp, int sourceLamport, long receivedTime) {
         this.station = station;
         this.temperature = temperature;
         this.humidity = humidity;
         this.replicaId = replicaId;
+        this.state = state;
         this.lamportTimestamp = lamportTimestamp;
+        this.sourceLamport = sourceLamport;
         this.receivedTime = receivedTime;
     }
 
@@ -45,10 +61,18 @@ public class WeatherRecord {
         return replicaId;
     }
 
+    public String getState() {
+        return state;
+    }
+
     public int getLamportTimestamp() {
         return lamportTimestamp;
     }
 
+    public int getSourceLamport() {
+        return sourceLamport;
+    }
+
     public long getReceivedTime() {
         return receivedTime;
     }
@@ -57,8 +81,8 @@ public class WeatherRecord {
     @Override
     public String toString() {
         return String.format(
-                "Station: %s, Temp: %s, Humidity: %s, Replica: %s, Lamport: %d, Received: %d",
-                station, temperature, humidity, replicaId, lamportTimestamp, receivedTime
+                "Station: %s, Temp: %s, Humidity: %s, Replica: %s, State: %s, Lamport: %d, Received: %d",
+                station, temperature, humidity, replicaId, state, lamportTimestamp, receivedTime
         );
     }
 }
@@ -0,0 +1,378 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Scenario tests against an embedded AggregationServer: ephemeral port, temporary
+ * data directory, no cleanup thread and a manual clock, so expiry is driven by
+ * advance() and runCleanup() instead of real sleeps.
+ */
+class AggregationServerTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @TempDir
+    Path dataDir;
+
+    private ManualTimeSource time;
+    private AggregationServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        time = new ManualTimeSource(START);
+        server = start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void recordsExpireWhenTheManualClockAdvances() throws IOException {
+        assertTrue(server.getPort() > 0);
+        assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+        assertEquals(200, get().status);
+
+        assertEquals(0, server.runCleanup());
+        time.advance(29_000);
+        assertEquals(0, server.runCleanup());
+        assertEquals(200, get().status);
+
+        time.advance(2_000);
+        assertEquals(1, server.runCleanup());
+        assertEquals(204, get().status);
+
+        Response archived = exchange("GET /archive?station=IDS1 HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n");
+        assertEquals(200, archived.status);
+        assertTrue(archived.body.contains("\"station\":\"IDS1\""));
+        assertTrue(Files.exists(dataDir.resolve("weather_data.json")));
+        assertFalse(new String(Files.readAllBytes(dataDir.resolve("weather_data.json")), StandardCharsets.UTF_8)
+                .contains("IDS1"));
+    }
+
+    @Test
+    void storeSurvivesRestartInTheSameDataDirectory() throws Exception {
+        assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+        server.close();
+
+        server = start();
+        assertTrue(get().body.contains("\"station\":\"IDS1\""));
+    }
+
+    @Test
+    void corruptDataFileFailsStartupLoudly() throws Exception {
+        server.close();
+        Path dataFile = dataDir.resolve("weather_data.json");
+        Files.write(dataFile, "{not json".getBytes(StandardCharsets.UTF_8));
+
+        AggregationServer broken = new AggregationServer(config());
+        broken.start();
+        IOException e = assertThrows(IOException.class, () -> broken.awaitReady(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().contains("Corrupt data file"), e.getCause().getMessage());
+        broken.close();
+
+        assertEquals("{not json", new String(Files.readAllBytes(dataFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void portInUseFailsStartup() throws Exception {
+        AggregationServer second = new AggregationServer(config().setPort(server.getPort()));
+        second.start();
+        assertThrows(IOException.class, () -> second.awaitReady(5, TimeUnit.SECONDS));
+        second.close();
+    }
+
+    @Test
+    void closeReleasesPortAndOpenConnections() throws Exception {
+        int port = server.getPort();
+        try (Socket idle = new Socket("localhost", port)) {
+            idle.setSoTimeout(5_000);
+            idle.getOutputStream().write("GET /weather.json HTTP/1.1\r\nConnection: keep-alive\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(200);   // let the handler answer and wait for the next request
+
+            server.close();
+            InputStream in = idle.getInputStream();
+            while (in.read() >= 0) {
+                // drain the response; read() returns -1 once close() has dropped the connection
+            }
+        }
+        assertThrows(IOException.class, () -> new Socket("localhost", port).close());
+    }
+
+    @Test
+    void serversInOneJvmAreIndependent(@TempDir Path otherDir) throws Exception {
+        AggregationServer other = new AggregationServer(config().setDataDir(otherDir.toFile()));
+        other.start();
+        assertTrue(other.awaitReady(5, TimeUnit.SECONDS));
+        try {
+            assertNotEquals(server.getPort(), other.getPort());
+            assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+            assertEquals(200, get().status);
+            assertEquals(204, exchange(other.getPort(), "GET /weather.json HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n").status);
+        } finally {
+            other.close();
+        }
+    }
+
+    /** Start, store, expire and close many servers: each scenario costs milliseconds, not 30s sleeps. */
+    @Test
+    void manyExpiryScenariosRunWithoutSleeping() throws Exception {
+        server.close();
+        for (int i = 0; i < 100; i++) {
+            ManualTimeSource clock = new ManualTimeSource(START);
+            File dir = dataDir.resolve("scenario-" + i).toFile();
+            try (AggregationServer scenario = new AggregationServer(config().setDataDir(dir).setTimeSource(clock))) {
+                scenario.start();
+                assertTrue(scenario.awaitReady(5, TimeUnit.SECONDS));
+                String body = record("IDS" + i, String.valueOf(i));
+                assertEquals(201, exchange(scenario.getPort(), putRequest(body, "replica-" + i, 1)).status);
+
+                clock.advance(ServerConfig.DEFAULT_EXPIRY_MS + 1);
+                assertEquals(1, scenario.runCleanup());
+                assertEquals(204, exchange(scenario.getPort(), "GET /weather.json HTTP/1.1\r\nLamport-Clock: 2\r\n\r\n").status);
+            }
+        }
+        server = start();
+    }
+
+    @Test
+    void headerOnlyReplicaKeepsItsLeaseWithHeartbeats() throws IOException {
+        assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+
+        time.advance(20_000);
+        assertEquals(200, heartbeat("replica-1", 2));
+        time.advance(20_000);
+        assertEquals(0, server.runCleanup(), "heartbeat renewed the lease");
+
+        time.advance(31_000);
+        assertEquals(1, server.runCleanup());
+        assertEquals(404, heartbeat("replica-1", 3));
+        assertEquals(204, get().status);
+    }
+
+    @Test
+    void leaseOwnerSurvivesRestart() throws Exception {
+        assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+        server.close();
+
+        server = start();
+        assertEquals(200, heartbeat("replica-1", 2));
+        assertTrue(get().body.contains("\"replicaId\":\"replica-1\""));
+    }
+
+    /**
+     * Heartbeats keep a record alive long past its receivedTime; a restart must not
+     * fall back to that time and expire the record at the first cleanup.
+     */
+    @Test
+    void heartbeatRenewedLeaseSurvivesRestartPastExpiry() throws Exception {
+        assertEquals(201, put(record("IDS1", "13"), "replica-1", 1));
+        for (int lamport = 2; lamport <= 5; lamport++) {
+            time.advance(10_000);
+            assertEquals(200, heartbeat("replica-1", lamport));
+        }
+        assertEquals(0, server.runCleanup());   // 40s after the PUT, 0s after the last heartbeat
+
+        server.close();
+        server = start();   // same instant
+        assertEquals(0, server.runCleanup());
+        time.advance(ServerConfig.DEFAULT_EXPIRY_MS);
+        assertEquals(0, server.runCleanup(), "restored lease runs a full expiry period");
+        assertEquals(200, get().status);
+
+        time.advance(1);
+        assertEquals(1, server.runCleanup());
+        assertEquals(204, get().status);
+    }
+
+    @Test
+    void retriedPutIsAcknowledgedWithoutReplacingTheRecord() throws IOException {
+        assertEquals(201, put(record("IDS1", "20"), "replica-1", 5));
+        assertEquals(200, put(record("IDS1", "99"), "replica-1", 5));   // same (replica, Lamport): a retry
+
+        assertTrue(get().body.contains("\"temperature\":\"20\""));
+    }
+
+    /**
+     * An older update is rejected by the stored record itself, also when it is far
+     * outside the retry window (which is bounded and may have been evicted).
+     */
+    @Test
+    void olderUpdateNeverReplacesNewerRecord() throws Exception {
+        assertEquals(201, put(record("IDS1", "20"), "replica-1", 500));
+        assertEquals(200, put(record("IDS1", "10"), "replica-1", 499));   // inside the window
+        assertEquals(200, put(record("IDS1", "11"), "replica-1", 7));     // far outside it
+        assertTrue(get().body.contains("\"temperature\":\"20\""));
+
+        server.close();
+        server = start();
+        assertEquals(200, put(record("IDS1", "12"), "replica-1", 8));
+        assertTrue(get().body.contains("\"temperature\":\"20\""));
+
+        assertEquals(200, put(record("IDS1", "21"), "replica-1", 501));
+        assertTrue(get().body.contains("\"temperature\":\"21\""));
+    }
+
+    @Test
+    void lamportValuesOfOtherReplicasAreNotCompared() throws IOException {
+        assertEquals(201, put(record("IDS1", "20"), "replica-1", 500));
+        assertEquals(200, put(record("IDS1", "30"), "replica-2", 1));
+
+        Response response = get();
+        assertTrue(response.body.contains("\"temperature\":\"30\""));
+        assertTrue(response.body.contains("\"replicaId\":\"replica-2\""));
+    }
+
+    /**
+     * Rollups follow every store, replace and expiry: a replaced maximum is retracted,
+     * a station that moves state leaves its old group and the last expiry empties them.
+     */
+    @Test
+    void aggregatesFollowReplaceStateChangeAndExpiry() throws IOException {
+        assertEquals(204, aggregates().status);
+        assertEquals(201, put(record("IDS1", "10"), "replica-1", 1));
+        assertEquals(201, put(record("IDS2", "30"), "replica-2", 1));
+        assertEquals(201, put(record("IDS3", "20", "VIC"), "replica-3", 1));
+
+        Map<String, Map<String, Object>> groups = aggregateGroups();
+        assertEquals(3.0, groups.get("*").get("stations"));
+        assertEquals(Map.of("count", 3.0, "avg", 20.0, "min", 10.0, "max", 30.0), groups.get("*").get("temperature"));
+        assertEquals(Map.of("count", 2.0, "avg", 20.0, "min", 10.0, "max", 30.0), groups.get("SA").get("temperature"));
+        assertEquals(Map.of("count", 3.0, "avg", 60.0, "min", 60.0, "max", 60.0), groups.get("*").get("humidity"));
+
+        // replacing the current maximum retracts it
+        assertEquals(200, put(record("IDS2", "15"), "replica-2", 2));
+        groups = aggregateGroups();
+        assertEquals(Map.of("count", 3.0, "avg", 15.0, "min", 10.0, "max", 20.0), groups.get("*").get("temperature"));
+        assertEquals(Map.of("count", 2.0, "avg", 12.5, "min", 10.0, "max", 15.0), groups.get("SA").get("temperature"));
+
+        // a replace into another state moves the station (and the minimum) between groups
+        assertEquals(200, put(record("IDS1", "12", "VIC"), "replica-1", 2));
+        groups = aggregateGroups();
+        assertEquals(1.0, groups.get("SA").get("stations"));
+        assertEquals(Map.of("count", 1.0, "avg", 15.0, "min", 15.0, "max", 15.0), groups.get("SA").get("temperature"));
+        assertEquals(Map.of("count", 2.0, "avg", 16.0, "min", 12.0, "max", 20.0), groups.get("VIC").get("temperature"));
+        Map<?, ?> global = (Map<?, ?>) groups.get("*").get("temperature");
+        assertEquals(47.0 / 3, (Double) global.get("avg"), 1e-9);
+        assertEquals(12.0, global.get("min"));
+        assertEquals(20.0, global.get("max"));
+
+        // replica-3 keeps its lease; the other two expire and leave their groups
+        time.advance(20_000);
+        assertEquals(200, heartbeat("replica-3", 2));
+        time.advance(11_000);
+        assertEquals(2, server.runCleanup());
+        groups = aggregateGroups();
+        assertEquals(2, groups.size(), "SA group is gone: " + groups.keySet());
+        assertEquals(1.0, groups.get("VIC").get("stations"));
+        assertEquals(Map.of("count", 1.0, "avg", 20.0, "min", 20.0, "max", 20.0), groups.get("*").get("temperature"));
+
+        time.advance(ServerConfig.DEFAULT_EXPIRY_MS + 1);
+        assertEquals(1, server.runCleanup());
+        assertEquals(204, aggregates().status);
+    }
+
+    // --- Helpers ---
+
+    private ServerConfig config() {
+        return new ServerConfig()
+                .setDataDir(dataDir.toFile())
+                .setPort(0)
+                .setCleanupIntervalMs(0)
+                .setTimeSource(time);
+    }
+
+    private AggregationServer start() throws Exception {
+        AggregationServer started = new AggregationServer(config());
+        started.start();
+        assertTrue(started.awaitReady(5, TimeUnit.SECONDS));
+        return started;
+    }
+
+    /** A feed entry without a replicaId field: the sender is named by the header only. */
+    static String record(String station, String temperature) {
+        return "{\"id\":\"" + station + "\",\"air_temp\":\"" + temperature + "\",\"rel_hum\":\"60\",\"state\":\"SA\"}";
+    }
+
+    static String record(String station, String temperature, String state) {
+        return record(station, temperature).replace("\"state\":\"SA\"", "\"state\":\"" + state + "\"");
+    }
+
+    int put(String body, String replicaId, int lamport) throws IOException {
+        return exchange(putRequest(body, replicaId, lamport)).status;
+    }
+
+    static String putRequest(String body, String replicaId, int lamport) {
+        return "PUT /weather.json HTTP/1.1\r\n"
+                + "Content-Type: application/json\r\n"
+                + (replicaId != null ? "Replica-Id: " + replicaId + "\r\n" : "")
+                + "Lamport-Clock: " + lamport + "\r\n"
+                + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n"
+                + "\r\n" + body;
+    }
+
+    int heartbeat(String replicaId, int lamport) throws IOException {
+        return exchange("PUT /heartbeat HTTP/1.1\r\nReplica-Id: " + replicaId + "\r\nLamport-Clock: " + lamport
+                + "\r\nContent-Length: 0\r\n\r\n").status;
+    }
+
+    Response get() throws IOException {
+        return exchange("GET /weather.json HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n");
+    }
+
+    Response aggregates() throws IOException {
+        return exchange("GET /aggregates HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n");
+    }
+
+    /** GET /aggregates decoded as group key → {stations, temperature, humidity}. */
+    private Map<String, Map<String, Object>> aggregateGroups() throws IOException {
+        Response response = aggregates();
+        assertEquals(200, response.status);
+        return new Gson().fromJson(response.body, new TypeToken<Map<String, Map<String, Object>>>(){}.getType());
+    }
+
+    private Response exchange(String request) throws IOException {
+        return exchange(server.getPort(), request);
+    }
+
+    /** Sends one request on a new connection and reads the response until the server closes it. */
+    static Response exchange(int port, String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5_000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            int bodyStart = response.indexOf("\r\n\r\n");
+            return new Response(Integer.parseInt(response.split(" ")[1]),
+                    bodyStart < 0 ? "" : response.substring(bodyStart + 4));
+        }
+    }
+
+    /** Status code and body of one response. */
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks connection reuse and the reachability backoff of AggregatorConnectionPool
+ * against a FakeAggregator that answers every request with 200.
+ */
+class AggregatorConnectionPoolTest {
+
+    private static final byte[] HEAD = ("PUT /weather.json HTTP/1.1\r\nContent-Type: application/json\r\n"
+            + "Connection: keep-alive\r\nContent-Length: 2\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BODY = "{}".getBytes(StandardCharsets.US_ASCII);
+
+    private FakeAggregator server;
+    private AggregatorConnectionPool pool;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (pool != null) pool.close();
+        if (server != null) server.close();
+    }
+
+    @Test
+    void pipelinedBatchesBorrowPooledConnections() throws IOException {
+        server = new FakeAggregator(0);
+        pool = new AggregatorConnectionPool("localhost", server.port(), 2);
+
+        assertTrue(pool.send(HEAD, BODY).contains("200"));
+        for (int i = 0; i < 5; i++) {
+            List<String> statusLines = pool.sendPipelined(batch(3));
+            assertEquals(3, statusLines.size());
+        }
+        assertTrue(pool.send(HEAD, BODY).contains("200"));
+
+        assertEquals(1, server.accepted.get());
+        assertEquals(17, server.requests.get());
+    }
+
+    @Test
+    void stalePooledConnectionIsReplacedForPipelinedBatch() throws IOException {
+        server = new FakeAggregator(0).closeAfter(1);
+        pool = new AggregatorConnectionPool("localhost", server.port(), 2);
+
+        assertTrue(pool.send(HEAD, BODY).contains("200"));
+        List<String> statusLines = pool.sendPipelined(batch(1));
+
+        assertEquals(1, statusLines.size());
+        assertEquals(2, server.accepted.get());
+    }
+
+    @Test
+    void unreachableAggregatorIsNotConnectedPerRequest() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();   // closed again: connects are refused
+        }
+        pool = new AggregatorConnectionPool("localhost", port, 2);
+
+        assertTrue(pool.isReachable());
+        assertThrows(IOException.class, () -> pool.sendPipelined(batch(2)));
+        assertFalse(pool.isReachable());
+
+        // further requests fail without touching the network until the backoff expires
+        for (int i = 0; i < 1_000; i++) {
+            ConnectException e = assertThrows(ConnectException.class, () -> pool.send(HEAD, BODY));
+            assertTrue(e.getMessage().contains("unreachable"), e.getMessage());
+        }
+
+        server = new FakeAggregator(port);
+        Thread.sleep(700);   // first probe backoff is 500 ms
+        assertTrue(pool.isReachable());
+        assertEquals(2, pool.sendPipelined(batch(2)).size());
+        assertTrue(pool.isReachable());
+        assertEquals(1, server.accepted.get());
+    }
+
+    private static List<byte[][]> batch(int size) {
+        List<byte[][]> requests = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            requests.add(new byte[][]{HEAD, BODY});
+        }
+        return requests;
+    }
+}
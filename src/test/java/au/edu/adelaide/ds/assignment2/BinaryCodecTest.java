@@ -0,0 +1,140 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips feed entries and record lists through BinaryCodec and through Gson
+ * (the JSON format) and checks that both decode to the same values.
+ */
+class BinaryCodecTest {
+
+    private static final Gson gson = new Gson();
+
+    /** Values that must survive byte for byte, not just numerically. */
+    private static final List<String> EDGE_VALUES = List.of(
+            "0", "-0", "007", "-3.25", "13.30", "0.00", "+5", "1e5", "-0.0",
+            "123456789012345678",              // 18 chars: still encoded as a decimal
+            "1234567890123456789",             // 19 chars: falls back to a string
+            "-12345678901234567890.123456789", // longer than a long
+            "", " 12 ", "NaN", "Adelaide (West Terrace /  ngayirdapira)"
+    );
+
+    @Test
+    void feedEntryMatchesJson() throws IOException {
+        Map<String, String> entry = new LinkedHashMap<>();
+        entry.put("id", "IDS60901");
+        entry.put("name", "Adelaide (West Terrace /  ngayirdapira)");
+        entry.put("state", "SA");
+        entry.put("lat", "-34.9");
+        entry.put("lon", "138.6");
+        entry.put("local_date_time_full", "20230715160000");
+        entry.put("air_temp", "-0");
+        entry.put("apparent_t", "007");
+        entry.put("dewpt", "-3.25");
+        entry.put("press", "1023.9999999999999999999");
+        entry.put("rel_hum", "60");
+        entry.put("wind_dir", "S");
+        entry.put("station_note", "Zürich – 東京");   // unknown key, sent as a literal
+        entry.put("replicaId", "replica-ñ");
+
+        assertEquals(viaJson(entry), BinaryCodec.decodeFields(BinaryCodec.encodeFields(entry)));
+    }
+
+    @Test
+    void edgeValuesMatchJson() throws IOException {
+        for (String value : EDGE_VALUES) {
+            Map<String, String> entry = Map.of("air_temp", value);
+            Map<String, String> decoded = BinaryCodec.decodeFields(BinaryCodec.encodeFields(entry));
+            assertEquals(viaJson(entry), decoded, "value " + value);
+            assertEquals(value, decoded.get("air_temp"));
+        }
+    }
+
+    @Test
+    void feedEntryDecodesFromBufferRegion() throws IOException {
+        Map<String, String> entry = Map.of("id", "IDS1", "air_temp", "-3.25");
+        byte[] encoded = BinaryCodec.encodeFields(entry);
+        byte[] buffer = new byte[encoded.length + 10];
+        System.arraycopy(encoded, 0, buffer, 7, encoded.length);
+
+        assertEquals(entry, BinaryCodec.decodeFields(buffer, 7, encoded.length));
+    }
+
+    @Test
+    void recordListMatchesJson() throws IOException {
+        List<WeatherRecord> records = new ArrayList<>();
+        records.add(new WeatherRecord("IDS60901", "13.3", "60", "replica-1", "SA", 1, 17, 1_700_000_000_000L));
+        records.add(new WeatherRecord("IDS60902", "-0", "007", "replica-1", "SA", 2, 0, 1_700_000_000_001L));
+        records.add(new WeatherRecord("IDS60901", "-3.25", "1234567890123456789", null, null, 3, 0L));   // sourceLamport -1
+        records.add(new WeatherRecord("Zürich-東京", "NaN", null, "replica-ñ", "ZH", Integer.MAX_VALUE,
+                Integer.MAX_VALUE, Long.MAX_VALUE));
+        records.add(new WeatherRecord("SA", "", " 12 ", "SA", "SA", -5, Integer.MIN_VALUE, 42L));   // one string used as station, replica and state
+
+        String binary = gson.toJson(BinaryCodec.decodeRecords(BinaryCodec.encodeRecords(records)));
+        String json = gson.toJson(gson.<List<WeatherRecord>>fromJson(gson.toJson(records),
+                new TypeToken<List<WeatherRecord>>(){}.getType()));
+        assertEquals(json, binary);
+
+        List<WeatherRecord> decoded = BinaryCodec.decodeRecords(BinaryCodec.encodeRecords(records));
+        assertNull(decoded.get(2).getReplicaId());
+        assertNull(decoded.get(2).getState());
+        assertNull(decoded.get(3).getHumidity());
+        assertEquals("007", decoded.get(1).getHumidity());
+        assertEquals(List.of(17, 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE),
+                decoded.stream().map(WeatherRecord::getSourceLamport).collect(Collectors.toList()));
+        assertTrue(json.contains("\"sourceLamport\":17"), json);
+    }
+
+    /** Feed entries did not change in version 2, so version 1 PUT bodies still decode; record lists did. */
+    @Test
+    void versionOneIsAcceptedOnlyForFeedEntries() throws IOException {
+        Map<String, String> entry = Map.of("id", "IDS1", "air_temp", "13.3");
+        byte[] fields = BinaryCodec.encodeFields(entry);
+        byte[] records = BinaryCodec.encodeRecords(List.of(new WeatherRecord("IDS1", "13.3", "60", "r", "SA", 1, 1, 1L)));
+        assertEquals(2, fields[1]);
+        assertEquals(2, records[1]);
+
+        fields[1] = 1;
+        records[1] = 1;
+        assertEquals(entry, BinaryCodec.decodeFields(fields));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeRecords(records));
+
+        fields[1] = 3;
+        assertThrows(IOException.class, () -> BinaryCodec.decodeFields(fields));
+    }
+
+    @Test
+    void emptyRecordList() throws IOException {
+        assertTrue(BinaryCodec.decodeRecords(BinaryCodec.encodeRecords(List.of())).isEmpty());
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() {
+        List<WeatherRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new WeatherRecord("IDS" + (i % 10), "1" + i + ".5", "60", "replica-1", "SA", i, 1_700_000_000_000L + i));
+        }
+        assertTrue(BinaryCodec.encodeRecords(records).length < gson.toJson(records).length() / 2);
+    }
+
+    @Test
+    void rejectsMalformedPayloads() {
+        byte[] encoded = BinaryCodec.encodeFields(Map.of("id", "IDS1", "air_temp", "13.3"));
+
+        assertThrows(IOException.class, () -> BinaryCodec.decodeFields("{\"id\":1}".getBytes()));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeFields(Arrays.copyOf(encoded, encoded.length - 2)));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeRecords(new byte[0]));
+    }
+
+    private static Map<String, String> viaJson(Map<String, String> entry) {
+        return gson.fromJson(gson.toJson(entry), new TypeToken<Map<String, String>>(){}.getType());
+    }
+}
@@ -0,0 +1,104 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static au.edu.adelaide.ds.assignment2.OutboxTest.lamports;
+import static au.edu.adelaide.ds.assignment2.OutboxTest.update;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Outbox replay of ContentServer against a FakeAggregator: which updates count
+ * as delivered and what stays in the outbox when a batch is cut short.
+ */
+class ContentServerTest {
+
+    @TempDir
+    Path outboxDir;
+
+    private FakeAggregator aggregator;
+    private AggregatorConnectionPool pool;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (pool != null) pool.close();
+        if (aggregator != null) aggregator.close();
+    }
+
+    @Test
+    void serverErrorsStayInTheOutboxOtherStatusesAreDelivered() throws IOException {
+        aggregator = new FakeAggregator(0)
+                .respondWith(request -> request.getLamportClock() == 2 ? 503 : request.getLamportClock() == 3 ? 400 : 201);
+        ContentServer server = contentServer(aggregator.port(), 1, 2, 3, 4);
+
+        assertFalse(server.replayOutbox(pool));
+        assertEquals(List.of(1, 2, 3, 4), aggregator.lamports);
+        assertEquals(List.of(2), pendingLamports());
+
+        aggregator.respondWith(request -> 200);
+        assertTrue(server.replayOutbox(pool));
+        assertFalse(server.hasBacklog());
+        assertEquals(List.of(1, 2, 3, 4, 2), aggregator.lamports);
+    }
+
+    @Test
+    void shortBatchKeepsTheUnansweredRest() throws IOException {
+        aggregator = new FakeAggregator(0).closeAfter(3);
+        ContentServer server = contentServer(aggregator.port(), 1, 2, 3, 4, 5);
+
+        assertFalse(server.replayOutbox(pool));
+        assertEquals(List.of(4, 5), pendingLamports());
+
+        aggregator.closeAfter(0);
+        assertTrue(server.replayOutbox(pool));
+        assertEquals(List.of(1, 2, 3, 4, 5), aggregator.lamports);
+    }
+
+    /** A connection that dies inside the second batch: the later batches are not sent at all. */
+    @Test
+    void shortBatchStopsTheReplay() throws IOException {
+        aggregator = new FakeAggregator(0).closeAfter(200);
+        ContentServer server = contentServer(aggregator.port(), IntStream.rangeClosed(1, 300).toArray());
+
+        assertFalse(server.replayOutbox(pool));
+        assertEquals(IntStream.rangeClosed(201, 300).boxed().collect(Collectors.toList()), pendingLamports());
+        assertEquals(200, aggregator.requests.get());
+        assertEquals(1, aggregator.accepted.get(), "no new connection for the third batch");
+    }
+
+    @Test
+    void unreachableAggregatorLosesNothing() throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();   // closed again: connects are refused
+        }
+        ContentServer server = contentServer(port, 1, 2, 3);
+
+        assertFalse(server.replayOutbox(pool));
+        assertEquals(List.of(1, 2, 3), pendingLamports());
+    }
+
+    /** A non-coalescing ContentServer on the given port whose outbox holds the given updates. */
+    private ContentServer contentServer(int port, int... lamports) {
+        ContentServer server = new ContentServer("localhost", port, "unused.txt", "replica-1",
+                false, false, outboxDir.toFile());
+        for (int lamport : lamports) {
+            server.enqueue(update(lamport, "IDS" + lamport));
+        }
+        pool = new AggregatorConnectionPool("localhost", port, 1);
+        return server;
+    }
+
+    private List<Integer> pendingLamports() {
+        return lamports(new Outbox(new File(outboxDir.toFile(), "replica-1.log"), false).pending());
+    }
+}
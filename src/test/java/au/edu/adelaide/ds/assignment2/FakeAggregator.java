@@ -0,0 +1,101 @@
+package au.edu.adelaide.ds.assignment2;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Minimal keep-alive aggregator for client-side tests. Parses requests with
+ * HttpRequestParser and answers each one with an empty response.
+ * - respondWith() picks the status code per request (default 200)
+ * - closeAfter() closes each connection after that many responses
+ * .
+ * Counts accepted connections and answered requests, and records the
+ * Lamport-Clock header of every answered request.
+ */
+final class FakeAggregator implements Closeable {
+
+    private final ServerSocket socket;
+    private volatile ToIntFunction<HttpRequest> status = request -> 200;
+    private volatile int responsesPerConnection;   // 0 = keep connections open
+
+    final AtomicInteger accepted = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    final List<Integer> lamports = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param port port to listen on, 0 for any free port
+     */
+    FakeAggregator(int port) throws IOException {
+        this.socket = new ServerSocket(port);
+        Thread thread = new Thread(this::acceptLoop, "fake-aggregator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    FakeAggregator respondWith(ToIntFunction<HttpRequest> status) {
+        this.status = status;
+        return this;
+    }
+
+    FakeAggregator closeAfter(int responses) {
+        this.responsesPerConnection = responses;
+        return this;
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket client = socket.accept();
+                accepted.incrementAndGet();
+                Thread handler = new Thread(() -> serve(client), "fake-aggregator-client");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private void serve(Socket client) {
+        ByteBuffer buffer = new BufferPool().acquire();
+        HttpRequest request = new HttpRequest();
+        int answered = 0;
+        try (Socket s = client; InputStream in = s.getInputStream(); OutputStream out = s.getOutputStream()) {
+            while (HttpRequestParser.read(in, buffer, request)) {
+                requests.incrementAndGet();
+                int code = status.applyAsInt(request);
+                if (request.hasLamportClock()) lamports.add(request.getLamportClock());
+                out.write(("HTTP/1.1 " + code + (code < 400 ? " OK" : " Error") + "\r\nContent-Length: 0\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                int limit = responsesPerConnection;
+                if (limit > 0 && ++answered >= limit) {
+                    // half-close and drain, so unread pipelined requests do not turn the close into a reset
+                    s.shutdownOutput();
+                    while (in.read() >= 0) {
+                        // discard
+                    }
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,174 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static au.edu.adelaide.ds.assignment2.AggregationServerTest.exchange;
+import static au.edu.adelaide.ds.assignment2.AggregationServerTest.putRequest;
+import static au.edu.adelaide.ds.assignment2.AggregationServerTest.record;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * GETClient and its WeatherMirror against an embedded AggregationServer with a
+ * manual clock: per-poll diffs in both encodings, watching, and reconnecting
+ * when the keep-alive connection went stale.
+ */
+class GETClientTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @TempDir
+    Path dataDir;
+
+    private final ManualTimeSource time = new ManualTimeSource(START);
+    private AggregationServer server;
+    private GETClient client;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = start(config());
+    }
+
+    @AfterEach
+    void stop() {
+        if (client != null) client.close();
+        server.close();
+    }
+
+    @ParameterizedTest(name = "binary={0}")
+    @ValueSource(booleans = {false, true})
+    void pollReportsAddedUpdatedAndRemovedStations(boolean binary) throws IOException {
+        client = new GETClient("localhost", server.getPort(), binary);
+        assertTrue(client.poll().isEmpty(), "204 on an empty mirror changes nothing");
+
+        put(record("IDS1", "13"), "replica-1", 1);
+        put(record("IDS2", "20"), "replica-2", 1);
+        WeatherMirror.Diff diff = client.poll();
+        assertEquals(List.of("IDS1", "IDS2"), stations(diff.getAdded()));
+        assertTrue(diff.getUpdated().isEmpty());
+        assertTrue(diff.getRemoved().isEmpty());
+
+        assertTrue(client.poll().isEmpty(), "unchanged poll");
+
+        put(record("IDS2", "21"), "replica-2", 2);
+        time.advance(20_000);
+        put(record("IDS3", "5"), "replica-2", 3);
+        time.advance(11_000);
+        assertEquals(1, server.runCleanup());   // replica-1 stopped sending: IDS1 expires
+        diff = client.poll();
+        assertEquals(List.of("IDS3"), stations(diff.getAdded()));
+        assertEquals(List.of("IDS2"), stations(diff.getUpdated()));
+        assertEquals("21", diff.getUpdated().get(0).getTemperature());
+        assertEquals(List.of("IDS1"), stations(diff.getRemoved()));
+        assertEquals("13", diff.getRemoved().get(0).getTemperature(), "last known state");
+
+        assertEquals(Set.of("IDS2", "IDS3"), client.getMirror().snapshot().keySet());
+        assertEquals("21", client.getMirror().get("IDS2").getTemperature());
+
+        time.advance(ServerConfig.DEFAULT_EXPIRY_MS + 1);
+        assertEquals(2, server.runCleanup());
+        diff = client.poll();
+        assertEquals(List.of("IDS2", "IDS3"), stations(diff.getRemoved()));
+        assertEquals(0, client.getMirror().size());
+    }
+
+    @Test
+    void watcherReceivesOnlyChanges() throws Exception {
+        BlockingQueue<WeatherMirror.Diff> diffs = new LinkedBlockingQueue<>();
+        client = new GETClient("localhost", server.getPort(), false);
+        put(record("IDS1", "13"), "replica-1", 1);
+        client.startWatching(20, diffs::add);
+
+        WeatherMirror.Diff diff = diffs.poll(5, TimeUnit.SECONDS);
+        assertNotNull(diff);
+        assertEquals(List.of("IDS1"), stations(diff.getAdded()));
+        assertNull(diffs.poll(200, TimeUnit.MILLISECONDS), "unchanged polls are not reported");
+
+        put(record("IDS1", "14"), "replica-1", 2);
+        diff = diffs.poll(5, TimeUnit.SECONDS);
+        assertNotNull(diff);
+        assertEquals(List.of("IDS1"), stations(diff.getUpdated()));
+
+        time.advance(ServerConfig.DEFAULT_EXPIRY_MS + 1);
+        assertEquals(1, server.runCleanup());
+        diff = diffs.poll(5, TimeUnit.SECONDS);
+        assertNotNull(diff);
+        assertEquals(List.of("IDS1"), stations(diff.getRemoved()));
+        assertThrows(IllegalStateException.class, () -> client.startWatching(20, diffs::add));
+    }
+
+    @Test
+    void reconnectsAfterTheServerClosedAnIdleConnection() throws Exception {
+        server.close();
+        server = start(config().setIdleTimeoutMs(100));
+        client = new GETClient("localhost", server.getPort(), false);
+        put(record("IDS1", "13"), "replica-1", 1);
+        assertEquals(List.of("IDS1"), stations(client.poll().getAdded()));
+
+        Thread.sleep(400);   // the server drops the idle keep-alive connection
+        put(record("IDS1", "14"), "replica-1", 2);
+        assertEquals(List.of("IDS1"), stations(client.poll().getUpdated()));
+    }
+
+    @Test
+    void reconnectsAfterServerRestart() throws Exception {
+        client = new GETClient("localhost", server.getPort(), true);
+        put(record("IDS1", "13"), "replica-1", 1);
+        assertEquals(List.of("IDS1"), stations(client.poll().getAdded()));
+
+        int port = server.getPort();
+        server.close();
+        server = start(config().setPort(port));   // same data directory: the record is restored
+        assertTrue(client.poll().isEmpty());
+
+        put(record("IDS2", "20"), "replica-2", 1);
+        assertEquals(List.of("IDS2"), stations(client.poll().getAdded()));
+    }
+
+    @Test
+    void pollFailsWhenTheServerIsGone() throws Exception {
+        client = new GETClient("localhost", server.getPort(), false);
+        client.poll();
+        server.close();
+
+        assertThrows(IOException.class, () -> client.poll());
+        client.close();
+        assertThrows(IOException.class, () -> client.poll());
+    }
+
+    private ServerConfig config() {
+        return new ServerConfig()
+                .setDataDir(dataDir.toFile())
+                .setPort(0)
+                .setCleanupIntervalMs(0)
+                .setTimeSource(time);
+    }
+
+    private static AggregationServer start(ServerConfig config) throws Exception {
+        AggregationServer started = new AggregationServer(config);
+        started.start();
+        assertTrue(started.awaitReady(5, TimeUnit.SECONDS));
+        return started;
+    }
+
+    private void put(String body, String replicaId, int lamport) throws IOException {
+        int status = exchange(server.getPort(), putRequest(body, replicaId, lamport)).status;
+        assertTrue(status == 200 || status == 201, "PUT answered " + status);
+    }
+
+    private static List<String> stations(List<WeatherRecord> records) {
+        return records.stream().map(WeatherRecord::getStation).sorted().collect(Collectors.toList());
+    }
+}
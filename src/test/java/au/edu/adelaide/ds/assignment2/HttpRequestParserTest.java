@@ -0,0 +1,399 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Feeds HttpRequestParser whole, split, pipelined, truncated and corrupted
+ * requests, and checks that header parsing does not allocate per header.
+ */
+class HttpRequestParserTest {
+
+    private static final String PUT_BODY = "{\"id\":\"IDS60901\",\"air_temp\":\"13.3\",\"name\":\"Zürich\"}";
+    private static final String PUT = put(PUT_BODY, "Lamport-Clock: 7\r\nReplica-Id: replica-1\r\n");
+    private static final String GET = "GET /weather.json HTTP/1.1\r\nHost: localhost\r\nLamport-Clock: 3\r\n"
+            + "Accept: application/x-weather-binary\r\nConnection: Keep-Alive\r\n\r\n";
+    private static final String HEARTBEAT = "PUT /heartbeat HTTP/1.1\r\nReplica-Id: replica-1\r\n"
+            + "Lamport-Clock: 9\r\nContent-Length: 0\r\n\r\n";
+
+    @Test
+    void parsesPut() throws IOException {
+        List<HttpRequest> requests = readAll(bytes(PUT), Integer.MAX_VALUE);
+
+        assertEquals(1, requests.size());
+        assertPut(requests.get(0));
+    }
+
+    @Test
+    void parsesGetHeadersCaseInsensitively() throws IOException {
+        HttpRequest request = readAll(bytes(GET), Integer.MAX_VALUE).get(0);
+
+        assertEquals(HttpRequest.Method.GET, request.getMethod());
+        assertEquals(HttpRequest.Route.WEATHER, request.getRoute());
+        assertTrue(request.hasLamportClock());
+        assertEquals(3, request.getLamportClock());
+        assertTrue(request.isBinaryAccept());
+        assertTrue(request.isKeepAlive());
+        assertEquals(0, request.getContentLength());
+    }
+
+    @Test
+    void parsesRoutesAndQuery() throws IOException {
+        String requests = "GET /aggregates HTTP/1.1\r\n\r\n"
+                + "GET /archive?station=IDS60901&from=1 HTTP/1.0\r\n\r\n"
+                + HEARTBEAT
+                + "DELETE /weather.json HTTP/1.1\r\n\r\n";
+        List<HttpRequest> parsed = readAll(bytes(requests), Integer.MAX_VALUE);
+
+        assertEquals(HttpRequest.Route.AGGREGATES, parsed.get(0).getRoute());
+        assertEquals(HttpRequest.Route.ARCHIVE, parsed.get(1).getRoute());
+        assertEquals("station=IDS60901&from=1", parsed.get(1).getQuery());
+        assertEquals(HttpRequest.Route.HEARTBEAT, parsed.get(2).getRoute());
+        assertEquals("replica-1", parsed.get(2).getReplicaId());
+        assertEquals(HttpRequest.Method.OTHER, parsed.get(3).getMethod());
+    }
+
+    @Test
+    void splitReadsGiveTheSameRequest() throws IOException {
+        for (int chunk : new int[]{1, 2, 3, 5, 8, 13, 64, 1000}) {
+            List<HttpRequest> requests = readAll(bytes(PUT), chunk);
+            assertEquals(1, requests.size(), "chunk " + chunk);
+            assertPut(requests.get(0));
+        }
+    }
+
+    @Test
+    void pipelinedRequestsAreReadInOrder() throws IOException {
+        byte[] stream = bytes(PUT + GET + HEARTBEAT + PUT);
+        for (int chunk : new int[]{1, 7, 100, Integer.MAX_VALUE}) {
+            List<HttpRequest> requests = readAll(stream, chunk);
+            assertEquals(4, requests.size(), "chunk " + chunk);
+            assertPut(requests.get(0));
+            assertEquals(HttpRequest.Method.GET, requests.get(1).getMethod());
+            assertEquals(HttpRequest.Route.HEARTBEAT, requests.get(2).getRoute());
+            assertPut(requests.get(3));
+        }
+    }
+
+    @Test
+    void bodyLargerThanBufferIsReadCompletely() throws IOException {
+        char[] filler = new char[BufferPool.BUFFER_SIZE * 2];
+        Arrays.fill(filler, 'x');
+        String body = "{\"id\":\"" + new String(filler) + "\"}";
+        List<HttpRequest> requests = readAll(bytes(put(body, "") + GET), 4096);
+
+        assertEquals(2, requests.size());
+        assertEquals(body, bodyOf(requests.get(0)));
+        assertEquals(HttpRequest.Method.GET, requests.get(1).getMethod());
+    }
+
+    @Test
+    void truncatedHeadersAreRejected() {
+        String truncated = PUT.substring(0, PUT.indexOf("\r\n\r\n"));
+        assertStatus("400", bytes(truncated), 3);
+    }
+
+    @Test
+    void truncatedBodyIsRejected() {
+        assertStatus("400", bytes(PUT.substring(0, PUT.length() - 5)), 16);
+
+        char[] filler = new char[BufferPool.BUFFER_SIZE * 2];
+        Arrays.fill(filler, 'x');
+        String large = put(new String(filler), "");
+        assertStatus("400", bytes(large.substring(0, large.length() - 1)), 4096);
+    }
+
+    @Test
+    void cleanEndOfStreamBetweenRequests() throws IOException {
+        ByteBuffer buffer = newBuffer();
+        HttpRequest request = new HttpRequest();
+        InputStream in = new ChunkedInputStream(bytes(GET), 5);
+
+        assertTrue(HttpRequestParser.read(in, buffer, request));
+        assertFalse(HttpRequestParser.read(in, buffer, request));
+        assertFalse(HttpRequestParser.read(new ByteArrayInputStream(new byte[0]), newBuffer(), request));
+    }
+
+    @Test
+    void conflictingContentLengthsAreRejected() throws IOException {
+        String conflicting = "PUT /weather.json HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\nabcdef";
+        assertStatus("400", bytes(conflicting), Integer.MAX_VALUE);
+
+        String repeated = "PUT /weather.json HTTP/1.1\r\nContent-Length: 3\r\ncontent-length: 3\r\n\r\nabc";
+        assertEquals("abc", bodyOf(readAll(bytes(repeated), Integer.MAX_VALUE).get(0)));
+    }
+
+    @Test
+    void invalidContentLengthsAreRejected() {
+        for (String value : new String[]{"-1", "abc", "", "99999999999", "1 2"}) {
+            String request = "PUT /weather.json HTTP/1.1\r\nContent-Length: " + value + "\r\n\r\n";
+            assertStatus("400", bytes(request), Integer.MAX_VALUE);
+        }
+    }
+
+    @Test
+    void oversizedBodyIsRejected() {
+        String request = "PUT /weather.json HTTP/1.1\r\nContent-Length: " + (HttpRequestParser.MAX_BODY_BYTES + 1)
+                + "\r\n\r\n";
+        assertStatus("413", bytes(request), Integer.MAX_VALUE);
+    }
+
+    @Test
+    void oversizedHeaderBlockIsRejected() {
+        StringBuilder request = new StringBuilder("GET /weather.json HTTP/1.1\r\n");
+        while (request.length() <= BufferPool.BUFFER_SIZE) {
+            request.append("X-Padding: ").append("p".repeat(100)).append("\r\n");
+        }
+        request.append("\r\n");
+        assertStatus("431", bytes(request.toString()), 1000);
+    }
+
+    @Test
+    void malformedLinesAreRejected() {
+        assertStatus("400", bytes("GET /weather.json\r\n\r\n"), Integer.MAX_VALUE);
+        assertStatus("400", bytes("GET  HTTP/1.1\r\n\r\n"), Integer.MAX_VALUE);
+        assertStatus("400", bytes("GET /weather.json SMTP/1.1\r\n\r\n"), Integer.MAX_VALUE);
+        assertStatus("400", bytes("GET /weather.json HTTP/1.1\r\nno colon here\r\n\r\n"), Integer.MAX_VALUE);
+        assertStatus("400", bytes("GET /weather.json HTTP/1.1\r\n: empty name\r\n\r\n"), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Random byte flips, insertions, deletions and cuts of a pipelined stream must
+     * end in parsed requests, a clean end of stream or HttpParseException; never
+     * another exception or an endless loop.
+     */
+    @Test
+    void randomCorruptionOnlyRaisesParseErrors() {
+        byte[] valid = bytes(PUT + GET + HEARTBEAT);
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 5_000; iteration++) {
+            byte[] corrupted = corrupt(valid, random);
+            int chunk = 1 + random.nextInt(64);
+            try {
+                List<HttpRequest> requests = readAll(corrupted, chunk);
+                assertTrue(requests.size() <= corrupted.length, "more requests than bytes");
+            } catch (HttpParseException e) {
+                assertTrue(e.getStatus().matches("4\\d\\d .+"), e.getStatus());
+            } catch (IOException | RuntimeException e) {
+                fail("iteration " + iteration + " (chunk " + chunk + ") threw " + e + " for input:\n"
+                        + new String(corrupted, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * Header parsing must not allocate per header: parsing a request with many
+     * unrecognized headers allocates nothing once the code is warm.
+     */
+    @Test
+    void headerParsingDoesNotAllocatePerHeader() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder headers = new StringBuilder("PUT /weather.json HTTP/1.1\r\n");
+        for (int i = 0; i < 64; i++) {
+            headers.append("X-Unrecognized-").append(i).append(": some value ").append(i).append("\r\n");
+        }
+        headers.append("Lamport-Clock: 12\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n{}");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(headers.toString()));
+        HttpRequest request = new HttpRequest();
+
+        int iterations = 20_000;
+        for (int i = 0; i < iterations; i++) {   // warm up (JIT)
+            HttpRequestParser.parseHeaders(buffer, request);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int total = 0;
+        for (int i = 0; i < iterations; i++) {
+            total += HttpRequestParser.parseHeaders(buffer, request);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(iterations * buffer.limit() - 2 * iterations, total);
+        assertEquals(12, request.getLamportClock());
+        assertTrue(allocated < 64 * 1024,
+                allocated + " bytes allocated for " + iterations + " parses of 64 unrecognized headers");
+    }
+
+    /** A whole read() costs the same allocation whether a request has 1 or 64 extra headers. */
+    @Test
+    void readAllocationDoesNotGrowWithHeaderCount() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long few = bytesPerRead(threads, 1);
+        long many = bytesPerRead(threads, 64);
+        assertTrue(many - few < 16, "per-request allocation grew from " + few + " to " + many + " bytes");
+    }
+
+    // --- Helpers ---
+
+    private static long bytesPerRead(com.sun.management.ThreadMXBean threads, int headerCount) throws IOException {
+        StringBuilder request = new StringBuilder("PUT /weather.json HTTP/1.1\r\n");
+        for (int i = 0; i < headerCount; i++) {
+            request.append("X-Unrecognized-").append(i).append(": value\r\n");
+        }
+        request.append("Lamport-Clock: 5\r\nConnection: keep-alive\r\nContent-Length: 2\r\n\r\n{}");
+        byte[] one = bytes(request.toString());
+        int count = 2_000;
+        byte[] stream = new byte[one.length * count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(one, 0, stream, i * one.length, one.length);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up
+            InputStream in = new ByteArrayInputStream(stream);
+            ByteBuffer buffer = newBuffer();
+            HttpRequest parsed = new HttpRequest();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            while (HttpRequestParser.read(in, buffer, parsed)) {
+                // consume
+            }
+            allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        }
+        return allocated / count;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /** Reads requests until end of stream, copying each one (the parser reuses its request object). */
+    private static List<HttpRequest> readAll(byte[] stream, int chunk) throws IOException {
+        InputStream in = new ChunkedInputStream(stream, chunk);
+        ByteBuffer buffer = newBuffer();
+        HttpRequest request = new HttpRequest();
+        List<HttpRequest> requests = new ArrayList<>();
+        while (HttpRequestParser.read(in, buffer, request)) {
+            requests.add(copy(request));
+        }
+        return requests;
+    }
+
+    private static HttpRequest copy(HttpRequest request) {
+        HttpRequest copy = new HttpRequest();
+        copy.method = request.method;
+        copy.route = request.route;
+        copy.query = request.query;
+        copy.contentLength = request.contentLength;
+        copy.hasLamportClock = request.hasLamportClock;
+        copy.lamportClock = request.lamportClock;
+        copy.replicaId = request.replicaId;
+        copy.keepAlive = request.keepAlive;
+        copy.binaryBody = request.binaryBody;
+        copy.binaryAccept = request.binaryAccept;
+        copy.body = Arrays.copyOfRange(request.body, request.bodyOffset, request.bodyOffset + request.contentLength);
+        copy.bodyOffset = 0;
+        return copy;
+    }
+
+    private static void assertPut(HttpRequest request) {
+        assertEquals(HttpRequest.Method.PUT, request.getMethod());
+        assertEquals(HttpRequest.Route.WEATHER, request.getRoute());
+        assertEquals(7, request.getLamportClock());
+        assertEquals("replica-1", request.getReplicaId());
+        assertFalse(request.isBinaryBody());
+        assertTrue(request.isKeepAlive());
+        assertEquals(PUT_BODY, bodyOf(request));
+    }
+
+    private static void assertStatus(String status, byte[] stream, int chunk) {
+        HttpParseException e = assertThrows(HttpParseException.class, () -> readAll(stream, chunk));
+        assertTrue(e.getStatus().startsWith(status), "expected " + status + " but got " + e.getStatus());
+    }
+
+    private static String bodyOf(HttpRequest request) {
+        return new String(request.getBody(), request.getBodyOffset(), request.getContentLength(), StandardCharsets.UTF_8);
+    }
+
+    private static String put(String body, String extraHeaders) {
+        return "PUT /weather.json HTTP/1.1\r\n"
+                + "User-Agent: ATOMClient/1/0\r\n"
+                + "Content-Type: application/json\r\n"
+                + extraHeaders
+                + "Connection: keep-alive\r\n"
+                + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n"
+                + "\r\n"
+                + body;
+    }
+
+    private static byte[] corrupt(byte[] valid, Random random) {
+        byte[] data = valid.clone();
+        switch (random.nextInt(4)) {
+            case 0:   // flip bytes
+                for (int i = 0, n = 1 + random.nextInt(8); i < n; i++) {
+                    data[random.nextInt(data.length)] = (byte) random.nextInt(256);
+                }
+                return data;
+            case 1: { // insert random bytes
+                int at = random.nextInt(data.length);
+                byte[] inserted = new byte[1 + random.nextInt(16)];
+                random.nextBytes(inserted);
+                byte[] result = new byte[data.length + inserted.length];
+                System.arraycopy(data, 0, result, 0, at);
+                System.arraycopy(inserted, 0, result, at, inserted.length);
+                System.arraycopy(data, at, result, at + inserted.length, data.length - at);
+                return result;
+            }
+            case 2: { // delete a range
+                int at = random.nextInt(data.length);
+                int length = Math.min(data.length - at, 1 + random.nextInt(16));
+                byte[] result = new byte[data.length - length];
+                System.arraycopy(data, 0, result, 0, at);
+                System.arraycopy(data, at + length, result, at, data.length - at - length);
+                return result;
+            }
+            default:  // cut the stream
+                return Arrays.copyOf(data, random.nextInt(data.length));
+        }
+    }
+
+    private static ByteBuffer newBuffer() {
+        return new BufferPool().acquire();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns at most chunk bytes per read, like a socket receiving small segments. */
+    private static final class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private int position;
+
+        ChunkedInputStream(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (position >= data.length) return -1;
+            int n = Math.min(Math.min(len, chunk), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Durability and replay order of Outbox: truncated tails, per-station coalescing
+ * and rewriting after a partial delivery.
+ */
+class OutboxTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void truncatedTailIsDroppedAndLaterAppendsStayReadable() throws IOException {
+        File file = dir.resolve("replica-1.log").toFile();
+        Outbox outbox = new Outbox(file, false);
+        outbox.append(update(1, "IDS1"));
+        outbox.append(update(2, "IDS2"));
+        outbox.append(update(3, "IDS1"));
+
+        // crash mid-append: a length prefix promising more bytes than were written
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(500);
+            out.write(new byte[]{0, 0, 0, 4, 0});
+        }
+        long truncatedLength = file.length();
+
+        Outbox recovered = new Outbox(file, false);
+        assertEquals(List.of(1, 2, 3), lamports(recovered.pending()));
+        assertTrue(file.length() < truncatedLength, "partial entry removed from the file");
+
+        recovered.append(update(4, "IDS2"));
+        assertEquals(List.of(1, 2, 3, 4), lamports(new Outbox(file, false).pending()));
+        assertEquals("{\"id\":\"IDS2\",\"lamport\":\"4\"}",
+                new String(new Outbox(file, false).pending().get(3).payload, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void coalescingKeepsOnlyTheLatestUpdatePerStation() {
+        File file = dir.resolve("replica-1.log").toFile();
+        Outbox outbox = new Outbox(file, true);
+        outbox.append(update(1, "IDS1"));
+        outbox.append(update(2, "IDS2"));
+        outbox.append(update(5, "IDS1"));
+        outbox.append(update(3, "IDS3"));
+        outbox.append(update(4, "IDS2"));
+
+        assertEquals(List.of(3, 4, 5), lamports(outbox.pending()));
+        assertEquals(List.of("IDS3", "IDS2", "IDS1"),
+                outbox.pending().stream().map(u -> u.station).collect(Collectors.toList()));
+        assertEquals(List.of(1, 2, 3, 4, 5), lamports(new Outbox(file, false).pending()), "the log keeps every update");
+    }
+
+    @Test
+    void retainKeepsOnlyTheUndeliveredUpdates() {
+        File file = dir.resolve("replica-1.log").toFile();
+        Outbox outbox = new Outbox(file, false);
+        for (int lamport = 1; lamport <= 5; lamport++) {
+            outbox.append(update(lamport, "IDS" + lamport));
+        }
+
+        List<ContentServer.Update> pending = outbox.pending();
+        outbox.retain(pending.subList(3, 5));   // first three delivered
+        assertFalse(outbox.isEmpty());
+        assertEquals(List.of(4, 5), lamports(outbox.pending()));
+        assertEquals(List.of(4, 5), lamports(new Outbox(file, false).pending()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        outbox.append(update(6, "IDS6"));
+        assertEquals(List.of(4, 5, 6), lamports(outbox.pending()));
+
+        outbox.retain(List.of());
+        assertTrue(outbox.isEmpty());
+        assertFalse(file.exists());
+        assertTrue(new Outbox(file, false).isEmpty());
+    }
+
+    static ContentServer.Update update(int lamport, String station) {
+        byte[] payload = ("{\"id\":\"" + station + "\",\"lamport\":\"" + lamport + "\"}").getBytes(StandardCharsets.UTF_8);
+        return new ContentServer.Update(lamport, station, payload, BinaryCodec.JSON_CONTENT_TYPE);
+    }
+
+    static List<Integer> lamports(List<ContentServer.Update> updates) {
+        return updates.stream().map(u -> u.lamport).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,105 @@
+package au.edu.adelaide.ds.assignment2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compaction, retention and Lamport-range queries of RecordArchive, driven by a
+ * manual clock through runMaintenance() instead of the maintenance thread.
+ */
+class RecordArchiveTest {
+
+    private static final long HOUR_MS = 3_600_000L;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    private static final long DAY0 = 19_000 * DAY_MS;   // a day boundary
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rangeQueriesUseStationAndInclusiveLamportBounds() {
+        RecordArchive archive = new RecordArchive(dir.toFile(), new ManualTimeSource(DAY0));
+        assertTrue(archive.append(List.of(record("IDS1", 1), record("IDS2", 2), record("IDS1", 5)), DAY0));
+        assertTrue(archive.append(List.of(record("IDS1", 9)), DAY0 + HOUR_MS));
+
+        assertEquals(List.of("IDS1@1", "IDS1@5", "IDS1@9"), keys(archive.query("IDS1", 0, Integer.MAX_VALUE)));
+        assertEquals(List.of("IDS1@5", "IDS1@9"), keys(archive.query("IDS1", 2, 9)));
+        assertEquals(List.of("IDS2@2", "IDS1@5"), keys(archive.query(null, 2, 5)));
+        assertEquals(List.of(), keys(archive.query("IDS1", 6, 8)));
+        assertEquals(List.of(), keys(archive.query("IDS3", 0, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void pastDayIsCompactedIntoOneDeduplicatedDailySegment() {
+        ManualTimeSource time = new ManualTimeSource(DAY0 + 10 * HOUR_MS);
+        RecordArchive archive = new RecordArchive(dir.toFile(), time);
+        archive.append(List.of(record("IDS1", 1), record("IDS1", 2), record("IDS2", 3)), DAY0 + HOUR_MS);
+        archive.append(List.of(record("IDS1", 4), record("IDS1", 2)), DAY0 + 5 * HOUR_MS);   // IDS1@2 archived twice
+
+        archive.runMaintenance();
+        assertEquals(2, segmentFiles().size(), "today's segments are not compacted");
+
+        time.advance(DAY_MS);
+        archive.runMaintenance();
+        assertEquals(List.of(String.format("segment-%013d-%d.seg", DAY0, DAY_MS)), segmentFiles());
+        assertEquals(List.of("IDS1@1", "IDS1@2", "IDS1@4"), keys(archive.query("IDS1", 0, Integer.MAX_VALUE)));
+        assertEquals(List.of("IDS1@2", "IDS2@3"), keys(archive.query(null, 2, 3)));
+
+        archive.runMaintenance();   // already compacted: unchanged
+        RecordArchive reopened = new RecordArchive(dir.toFile(), time);
+        assertEquals(List.of("IDS1@1", "IDS1@2", "IDS1@4"), keys(reopened.query("IDS1", 0, Integer.MAX_VALUE)));
+        assertEquals(List.of("IDS2@3"), keys(reopened.query("IDS2", 3, 3)));
+    }
+
+    @Test
+    void retentionDeletesSegmentsOlderThanOneWeek() {
+        ManualTimeSource time = new ManualTimeSource(DAY0);
+        RecordArchive archive = new RecordArchive(dir.toFile(), time);
+        archive.append(List.of(record("IDS1", 1)), DAY0 + HOUR_MS);
+        archive.append(List.of(record("IDS1", 2)), DAY0 + DAY_MS + HOUR_MS);
+
+        time.set(DAY0 + 2 * DAY_MS);
+        archive.runMaintenance();
+        assertEquals(2, segmentFiles().size(), "both days compacted, neither expired");
+
+        // compacted day 0 ends at DAY0 + 1 day; it is kept while that is within 7 days of now
+        time.set(DAY0 + 8 * DAY_MS);
+        archive.runMaintenance();
+        assertEquals(List.of("IDS1@1", "IDS1@2"), keys(archive.query("IDS1", 0, Integer.MAX_VALUE)));
+        assertEquals(2, segmentFiles().size());
+
+        time.advance(1);
+        archive.runMaintenance();
+        assertEquals(List.of("IDS1@2"), keys(archive.query("IDS1", 0, Integer.MAX_VALUE)));
+        assertEquals(1, segmentFiles().size());
+
+        time.advance(DAY_MS);
+        archive.runMaintenance();
+        assertEquals(List.of(), keys(archive.query(null, 0, Integer.MAX_VALUE)));
+        assertEquals(List.of(), segmentFiles());
+    }
+
+    private static WeatherRecord record(String station, int lamport) {
+        return new WeatherRecord(station, "13.3", "60", "replica-1", "SA", lamport, DAY0);
+    }
+
+    private static List<String> keys(List<WeatherRecord> records) {
+        return records.stream()
+                .map(r -> r.getStation() + "@" + r.getLamportTimestamp())
+                .collect(Collectors.toList());
+    }
+
+    /** Segment files on disk, in name (= chronological) order; leftover .tmp files would show up here too. */
+    private List<String> segmentFiles() {
+        String[] names = dir.toFile().list((d, name) -> name.startsWith("segment-"));
+        List<String> sorted = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+}